@@ -0,0 +1,45 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the full suite: throughput benchmarks at 1, 4 and 16 threads (or
+ * the thread counts passed as arguments), then expiry lag. Results for each
+ * run are written as JSON to jmh-&lt;benchmark&gt;-&lt;threads&gt;.json so releases
+ * can be compared.
+ * <p>
+ * For a single benchmark, or to add profilers, use the JMH command line:
+ * java -jar target/benchmarks.jar PutGetRemoveBenchmark.put -t 4 -prof gc
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        int[] threads = args.length == 0 ? new int[]{1, 4, 16} : parse(args);
+
+        for (String benchmark : new String[]{"PutGetRemoveBenchmark", "MixedReadWriteBenchmark", "ShardedPutBenchmark", "ClockBenchmark", "BoundedMapBenchmark", "LongKeyBenchmark", "BulkPutBenchmark"})
+            for (int t : threads)
+                run(benchmark, t);
+
+        run("ExpiryLagBenchmark", 1);
+    }
+
+    private static void run(String benchmark, int threads) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BenchmarkRunner.class.getPackage().getName() + "." + benchmark + ".*")
+                .threads(threads)
+                .result("jmh-" + benchmark + "-" + threads + ".json")
+                .resultFormat(org.openjdk.jmh.results.format.ResultFormatType.JSON)
+                .build();
+        new Runner(options).run();
+    }
+
+    private static int[] parse(String[] args) {
+        int[] threads = new int[args.length];
+        for (int i = 0; i < args.length; i++)
+            threads[i] = Integer.parseInt(args[i]);
+        return threads;
+    }
+}
@@ -0,0 +1,74 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.util.LruPolicy;
+import com.benstopford.expiringmap.util.TinyLfuPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * Throughput of a cache style get-else-put over a Zipfian trace, with the
+ * map bounded to 10% of the key space by each policy, against unbounded.
+ * HitRateSimulation reports the hit rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BoundedMapBenchmark {
+    private static final int KEYS = 100000;
+    private static final int LENGTH = 1 << 20;
+
+    @Param({"unbounded", "lru", "tinyLfu"})
+    public String policy;
+
+    @Param({"0.8", "0.99"})
+    public double exponent;
+
+    private ExpiringMap<Integer, String> map;
+    private Integer[] trace;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ExpiringMap.Builder<Integer, String> builder = ExpiringMap.builder();
+        if ("lru".equals(policy))
+            builder.evictionPolicy(new LruPolicy<>(KEYS / 10));
+        else if ("tinyLfu".equals(policy))
+            builder.evictionPolicy(new TinyLfuPolicy<>(KEYS / 10));
+        map = builder.build();
+        trace = ZipfianTrace.generate(KEYS, exponent, LENGTH, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.close();
+    }
+
+    @Benchmark
+    public String getElsePut() {
+        Integer key = trace[ThreadLocalRandom.current().nextInt(LENGTH)];
+        String value = map.get(key);
+        if (value == null)
+            map.put(key, VALUE, TTL);
+        return value;
+    }
+}
@@ -0,0 +1,84 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * Loading a batch of new keys into a map that already holds 100,000 entries,
+ * with putAll against a put per key. Time is per batch. The batch's keys are
+ * removed again before each invocation, so every put is an insert.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkPutBenchmark {
+    private static final int RESIDENT = 100000;
+
+    @Param({"1000", "10000"})
+    public int batchSize;
+
+    @Param({"priorityQueue", "timingWheel"})
+    public String scheduler;
+
+    private ExpiringMap<Integer, String> map;
+    private Map<Integer, String> batch;
+    private List<Integer> keys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = new ExpiringMap<>(MapState.scheduler(scheduler));
+        for (int i = 0; i < RESIDENT; i++)
+            map.put(-i - 1, VALUE, TTL);
+        batch = new LinkedHashMap<>();
+        keys = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            batch.put(i, VALUE);
+            keys.add(i);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearBatch() {
+        map.removeAll(keys);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.close();
+    }
+
+    @Benchmark
+    public void loopedPut() {
+        for (Map.Entry<Integer, String> entry : batch.entrySet())
+            map.put(entry.getKey(), entry.getValue(), TTL);
+    }
+
+    @Benchmark
+    public void putAll() {
+        map.putAll(batch, TTL);
+    }
+}
@@ -0,0 +1,79 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.util.Clock;
+import com.benstopford.expiringmap.util.CoarseClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * System::nanoTime against a CoarseClock ticking every millisecond: the
+ * cost of a clock read on its own, then put and get throughput with each.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClockBenchmark {
+    private static final int KEYS = 100000;
+
+    @Param({"nanoTime", "coarse"})
+    public String clock;
+
+    private Clock source;
+    private ExpiringMap<Integer, String> map;
+    private Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = "coarse".equals(clock) ? new CoarseClock(1, MILLISECONDS) : System::nanoTime;
+        map = ExpiringMap.<Integer, String>builder().clock(source).build();
+        keys = new Integer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = i;
+            map.put(keys[i], VALUE, TTL);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.close();
+        if (source instanceof CoarseClock)
+            ((CoarseClock) source).close();
+    }
+
+    @Benchmark
+    public long now() {
+        return source.now();
+    }
+
+    @Benchmark
+    public void put() {
+        map.put(keys[ThreadLocalRandom.current().nextInt(KEYS)], VALUE, TTL);
+    }
+
+    @Benchmark
+    public String get() {
+        return map.get(keys[ThreadLocalRandom.current().nextInt(KEYS)]);
+    }
+}
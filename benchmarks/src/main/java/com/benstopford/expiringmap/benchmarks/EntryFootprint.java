@@ -0,0 +1,52 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.lang.reflect.Field;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * Bytes per entry of an ExpiringMap's own structures, the hash index and
+ * the scheduler, as walked by JOL. Keys and the (shared) value are
+ * subtracted, so only the map's overhead is counted. Compares the default
+ * layout, an entry plus a ConcurrentHashMap node, with compactEntries(),
+ * where the entry is the node. Sizes depend on the JVM's object layout, so
+ * run it with the heap the map will have: below 32GB references are
+ * compressed to 4 bytes.
+ * <pre>
+ * java -cp benchmarks.jar com.benstopford.expiringmap.benchmarks.EntryFootprint [entries]
+ * </pre>
+ */
+public class EntryFootprint {
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        System.out.printf("entries=%d%n", entries);
+        report("default", ExpiringMap.<Long, String>builder(), entries);
+        report("compact", ExpiringMap.<Long, String>builder().compactEntries(), entries);
+    }
+
+    private static void report(String layout, ExpiringMap.Builder<Long, String> builder, int entries) throws Exception {
+        Long[] keys = new Long[entries];
+        for (int i = 0; i < entries; i++)
+            keys[i] = (long) i * 1000;
+        try (ExpiringMap<Long, String> map = builder.build()) {
+            for (Long key : keys)
+                map.put(key, VALUE, TTL);
+            GraphLayout structures = GraphLayout.parseInstance(field(map, "backingMap"), field(map, "scheduler"));
+            long data = GraphLayout.parseInstance((Object[]) keys).totalSize() + GraphLayout.parseInstance(VALUE).totalSize();
+            long overhead = structures.totalSize() - data;
+            System.out.printf("%-10s %.1f bytes/entry%n", layout, overhead / (double) entries);
+            System.out.print(structures.toFootprint());
+        }
+    }
+
+    private static Object field(Object target, String name) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+}
@@ -0,0 +1,89 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.util.RemovalCause;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * Expiry lag: the time from an entry's deadline to its removal by the
+ * expiry thread. Each operation writes an entry that is already due and
+ * parks until a removal listener, run on the expiry thread as it removes
+ * the entry, unparks it. Parking rather than spinning leaves the CPU to the
+ * expiry thread being timed. Sample mode reports the lag as percentiles
+ * (p50, p90, p99, p99.99...).
+ * <p>
+ * liveEntries sets how many long lived entries sit alongside, so the
+ * scheduler's size is part of the measurement.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class ExpiryLagBenchmark {
+
+    private static final long PARK_NANOS = 1_000_000; //only a backstop, as the listener unparks us
+
+    @Param({"0", "1000000"})
+    public int liveEntries;
+
+    @Param({"priorityQueue", "timingWheel"})
+    public String scheduler;
+
+    private final AtomicInteger expired = new AtomicInteger();
+    private volatile Thread waiter;
+    private ExpiringMap<Integer, String> map;
+    private int next = -1;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = ExpiringMap.<Integer, String>builder()
+                .scheduler(MapState.scheduler(scheduler))
+                .removalListener((key, value, cause) -> {
+                    if (cause == RemovalCause.EXPIRED) {
+                        expired.incrementAndGet();
+                        LockSupport.unpark(waiter);
+                    }
+                }, Runnable::run)
+                .build();
+        for (int i = 0; i < liveEntries; i++)
+            map.put(i, VALUE, TTL);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.close();
+    }
+
+    @Benchmark
+    public int expiryLag() {
+        waiter = Thread.currentThread();
+        int target = expired.get() + 1;
+        map.put(next--, VALUE, 0);
+        while (expired.get() < target)
+            LockSupport.parkNanos(PARK_NANOS);
+        return target;
+    }
+}
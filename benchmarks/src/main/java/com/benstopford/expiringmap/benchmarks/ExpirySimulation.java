@@ -0,0 +1,177 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.MapStats;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Replays a trace against an ExpiringMap in simulated time, for sizing a
+ * map before it meets production load.
+ * <p>
+ * The map runs on a VirtualClock that jumps from one operation to the
+ * next, and its expiry thread runs in lockstep with the replay through a
+ * SteppedWaitService, woken at exactly the simulated times it asks for. A
+ * trace covering hours replays in seconds, and the same trace and map
+ * settings always give the same counts and lags.
+ * <p>
+ * Reports the peak entries and queue depth, the peak heap in use after
+ * collections, the hit rate, stale reads (values returned after the
+ * trace's own timeout for them had passed, which should never happen) and
+ * the expiry lag percentiles, in simulated time.
+ * <pre>
+ * java -cp benchmarks.jar com.benstopford.expiringmap.benchmarks.ExpirySimulation [trace file]
+ * </pre>
+ * Without a file it replays a synthetic trace of 5 million operations
+ * over two hours.
+ */
+public class ExpirySimulation {
+    private static final int SAMPLE_EVERY = 4096;
+
+    public static void main(String[] args) throws IOException {
+        Trace trace = args.length > 0
+                ? Trace.read(Paths.get(args[0]))
+                : Trace.synthetic(5_000_000, 5_000_000 / (double) HOURS.toSeconds(2), 1_000_000, 0.9, 0.7, 0.01,
+                MINUTES.toMillis(1), MINUTES.toMillis(30), 42);
+
+        System.out.println(run("sweep every 100ms", trace, ExpiringMap.<Long, String>builder().sweepInterval(100, MILLISECONDS)));
+        System.out.println(run("sweep every 10ms, 64 per sweep", trace,
+                ExpiringMap.<Long, String>builder().sweepInterval(10, MILLISECONDS).sweepBatchSize(64)));
+    }
+
+    /**
+     * Replay the trace against a map built from the builder, which is given the simulation's clock, wait
+     * service and stats.
+     */
+    public static Result run(String name, Trace trace, ExpiringMap.Builder<Long, String> builder) {
+        VirtualClock clock = new VirtualClock();
+        SteppedWaitService waits = new SteppedWaitService(clock);
+        Result result = new Result(name);
+        Map<Long, Long> deadlines = new HashMap<>(); //what the trace says each key's deadline is
+        long start = System.nanoTime();
+
+        try (ExpiringMap<Long, String> map = builder.clock(clock).waitService(waits).recordStats().build()) {
+            waits.awaitStarted();
+            MapStats stats = map.stats();
+            for (int i = 0; i < trace.length(); i++) {
+                long time = trace.time(i);
+                while (waits.nextWake() <= time) {
+                    clock.set(waits.nextWake());
+                    result.sample(stats);
+                    waits.step();
+                }
+                clock.set(time);
+
+                Long key = trace.key(i);
+                switch (trace.op(i)) {
+                    case Trace.PUT:
+                        map.put(key, VALUE, trace.timeoutMs(i));
+                        deadlines.put(key, time + MILLISECONDS.toNanos(trace.timeoutMs(i)));
+                        break;
+                    case Trace.GET:
+                        Long deadline = deadlines.get(key);
+                        boolean live = deadline != null && deadline > time;
+                        String value = map.get(key);
+                        if (value != null && !live)
+                            result.staleReads++;
+                        if (value == null && live)
+                            result.lostReads++;
+                        result.reads++;
+                        break;
+                    case Trace.REMOVE:
+                        map.remove(key);
+                        deadlines.remove(key);
+                        break;
+                }
+                if (i % SAMPLE_EVERY == 0)
+                    result.sample(stats);
+            }
+            result.finish(trace, stats, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    public static class Result {
+        private final String name;
+        private long reads;
+        private long staleReads;
+        private long lostReads;
+        private int peakSize;
+        private int peakQueueDepth;
+        private long peakHeapBytes;
+        private int operations;
+        private long simulatedNanos;
+        private long wallNanos;
+        private double hitRate;
+        private long expirations;
+        private long[] lagMs = new long[4];
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        void sample(MapStats stats) {
+            peakSize = Math.max(peakSize, stats.getSize());
+            peakQueueDepth = Math.max(peakQueueDepth, stats.getQueueDepth());
+            peakHeapBytes = Math.max(peakHeapBytes, heapAfterCollection());
+        }
+
+        void finish(Trace trace, MapStats stats, long wallNanos) {
+            sample(stats);
+            this.operations = trace.length();
+            this.simulatedNanos = trace.length() == 0 ? 0 : trace.time(trace.length() - 1);
+            this.wallNanos = wallNanos;
+            this.hitRate = stats.getHitRate();
+            this.expirations = stats.getExpirations();
+            double[] percentiles = {50, 99, 99.9, 100};
+            for (int i = 0; i < percentiles.length; i++)
+                lagMs[i] = stats.expiryLagPercentile(percentiles[i]) / 1000000;
+        }
+
+        public long staleReads() {
+            return staleReads;
+        }
+
+        public int peakSize() {
+            return peakSize;
+        }
+
+        public int peakQueueDepth() {
+            return peakQueueDepth;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %,d ops over %.1f simulated minutes in %.1fs%n" +
+                            "  peak entries %,d, peak queue depth %,d, peak heap after gc %,d MB%n" +
+                            "  hit rate %.1f%%, stale reads %d (%.4f%%), reads missing live keys %,d%n" +
+                            "  expirations %,d, expiry lag ms p50 %d, p99 %d, p99.9 %d, max %d",
+                    name, operations, simulatedNanos / 60e9, wallNanos / 1e9,
+                    peakSize, peakQueueDepth, peakHeapBytes >> 20,
+                    hitRate * 100, staleReads, reads == 0 ? 0 : staleReads * 100.0 / reads, lostReads,
+                    expirations, lagMs[0], lagMs[1], lagMs[2], lagMs[3]);
+        }
+
+        private static long heapAfterCollection() {
+            long used = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                MemoryUsage usage = pool.getCollectionUsage();
+                if (pool.getType() == MemoryType.HEAP && usage != null)
+                    used += usage.getUsed();
+            }
+            return used;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.util.EvictionPolicy;
+import com.benstopford.expiringmap.util.LruPolicy;
+import com.benstopford.expiringmap.util.TinyLfuPolicy;
+
+import java.util.function.LongFunction;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * Hit rates of the eviction policies on Zipfian traces, with the map
+ * bounded to 1% and 10% of the key space. A miss loads the key into the
+ * map, as a cache would.
+ */
+public class HitRateSimulation {
+    private static final int KEYS = 100000;
+    private static final int LENGTH = 2000000;
+
+    public static void main(String[] args) {
+        System.out.printf("%-9s %-8s %-9s %s%n", "exponent", "maximum", "policy", "hit rate");
+        for (double exponent : new double[]{0.6, 0.8, 0.99, 1.2}) {
+            Integer[] trace = ZipfianTrace.generate(KEYS, exponent, LENGTH, 42);
+            for (int maximum : new int[]{KEYS / 100, KEYS / 10}) {
+                report(exponent, maximum, "lru", hitRate(trace, maximum, LruPolicy::new));
+                report(exponent, maximum, "tinyLfu", hitRate(trace, maximum, TinyLfuPolicy::new));
+            }
+        }
+    }
+
+    private static double hitRate(Integer[] trace, int maximum, LongFunction<EvictionPolicy<Integer, String>> policy) {
+        try (ExpiringMap<Integer, String> map = ExpiringMap.<Integer, String>builder()
+                .evictionPolicy(policy.apply(maximum))
+                .build()) {
+            int hits = 0;
+            for (Integer key : trace) {
+                if (map.get(key) != null)
+                    hits++;
+                else
+                    map.put(key, VALUE, TTL);
+            }
+            return (double) hits / trace.length;
+        }
+    }
+
+    private static void report(double exponent, int maximum, String policy, double hitRate) {
+        System.out.printf("%-9.2f %-8d %-9s %.1f%%%n", exponent, maximum, policy, hitRate * 100);
+    }
+}
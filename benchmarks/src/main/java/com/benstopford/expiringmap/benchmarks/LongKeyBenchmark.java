@@ -0,0 +1,83 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.LongExpiringMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * ExpiringMap&lt;Long, String&gt; against LongExpiringMap&lt;String&gt;, with
+ * long ids as keys, boxed where the generic map needs them as callers
+ * would. LongKeyFootprint compares memory per entry.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LongKeyBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int mapSize;
+
+    private ExpiringMap<Long, String> generic;
+    private LongExpiringMap<String> primitive;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        generic = new ExpiringMap<>();
+        primitive = new LongExpiringMap<>();
+        for (long id = 0; id < mapSize; id++) {
+            generic.put(id * 1000, VALUE, TTL);
+            primitive.put(id * 1000, VALUE, TTL);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        generic.close();
+        primitive.close();
+    }
+
+    private long randomId() {
+        return ThreadLocalRandom.current().nextInt(mapSize) * 1000L;
+    }
+
+    @Benchmark
+    public void genericPut() {
+        generic.put(randomId(), VALUE, TTL);
+    }
+
+    @Benchmark
+    public void longPut() {
+        primitive.put(randomId(), VALUE, TTL);
+    }
+
+    @Benchmark
+    public String genericGet() {
+        return generic.get(randomId());
+    }
+
+    @Benchmark
+    public String longGet() {
+        return primitive.get(randomId());
+    }
+}
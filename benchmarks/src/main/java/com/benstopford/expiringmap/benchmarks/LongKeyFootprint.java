@@ -0,0 +1,53 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.LongExpiringMap;
+
+import java.lang.management.ManagementFactory;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * Heap bytes per entry of ExpiringMap&lt;Long, String&gt; against
+ * LongExpiringMap&lt;String&gt;, measured as the growth in live heap after
+ * filling each with the same keys. The value is one shared String, so only
+ * the maps' own overhead is counted.
+ * <pre>
+ * java -Xmx4g -cp benchmarks.jar com.benstopford.expiringmap.benchmarks.LongKeyFootprint [entries]
+ * </pre>
+ */
+public class LongKeyFootprint {
+
+    public static void main(String[] args) throws InterruptedException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        long before = usedHeapAfterGc();
+        ExpiringMap<Long, String> generic = new ExpiringMap<>();
+        for (long id = 0; id < entries; id++)
+            generic.put(id * 1000, VALUE, TTL);
+        long genericBytes = usedHeapAfterGc() - before;
+        generic.close();
+        generic = null;
+
+        before = usedHeapAfterGc();
+        LongExpiringMap<String> primitive = new LongExpiringMap<>();
+        for (long id = 0; id < entries; id++)
+            primitive.put(id * 1000, VALUE, TTL);
+        long primitiveBytes = usedHeapAfterGc() - before;
+
+        System.out.printf("entries=%d%n", entries);
+        System.out.printf("ExpiringMap<Long, String>:   %.1f bytes/entry%n", genericBytes / (double) entries);
+        System.out.printf("LongExpiringMap<String>:     %.1f bytes/entry (table capacity %d)%n",
+                primitiveBytes / (double) entries, primitive.capacity());
+        primitive.close();
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
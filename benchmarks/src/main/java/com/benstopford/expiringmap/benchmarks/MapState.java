@@ -0,0 +1,79 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.util.ExpiryScheduler;
+import com.benstopford.expiringmap.util.PriorityQueueScheduler;
+import com.benstopford.expiringmap.util.TimingWheelScheduler;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A map prefilled with mapSize entries that won't expire during the run.
+ * Keys are boxed up front so the benchmarks measure the map, not Integer.valueOf.
+ */
+@State(Scope.Benchmark)
+public class MapState {
+    public static final String VALUE = "value";
+    public static final long TTL = HOURS.toMillis(1);
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int mapSize;
+
+    @Param({"priorityQueue", "timingWheel"})
+    public String scheduler;
+
+    //-p recordStats=false,true to compare the cost of stats
+    @Param({"false"})
+    public boolean recordStats;
+
+    //-p expireAfterAccess=false,true to compare the cost of sliding timeouts on reads
+    @Param({"false"})
+    public boolean expireAfterAccess;
+
+    public ExpiringMap<Integer, String> map;
+    public Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ExpiringMap.Builder<Integer, String> builder = ExpiringMap.<Integer, String>builder().scheduler(scheduler(scheduler));
+        if (recordStats)
+            builder.recordStats();
+        if (expireAfterAccess)
+            builder.expireAfterAccess();
+        map = builder.build();
+        keys = new Integer[mapSize];
+        for (int i = 0; i < mapSize; i++) {
+            keys[i] = i;
+            map.put(keys[i], VALUE, TTL);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.close();
+    }
+
+    public Integer randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(mapSize)];
+    }
+
+    static ExpiryScheduler<Integer, String> scheduler(String name) {
+        switch (name) {
+            case "priorityQueue":
+                return new PriorityQueueScheduler<>();
+            case "timingWheel":
+                return new TimingWheelScheduler<>(1, MILLISECONDS);
+            default:
+                throw new IllegalArgumentException("Unknown scheduler " + name);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * Each operation is a read with probability readPercent, otherwise a write.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MixedReadWriteBenchmark {
+
+    @Param({"50", "90", "98"})
+    public int readPercent;
+
+    @Benchmark
+    public String readWrite(MapState state) {
+        Integer key = state.randomKey();
+        if (ThreadLocalRandom.current().nextInt(100) < readPercent)
+            return state.map.get(key);
+        state.map.put(key, VALUE, TTL);
+        return null;
+    }
+}
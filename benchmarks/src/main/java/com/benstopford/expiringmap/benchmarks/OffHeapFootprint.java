@@ -0,0 +1,96 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.util.OffHeapValueStore;
+import com.benstopford.expiringmap.util.Serializer;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Heap footprint and GC pauses of a map of byte[] values held on the heap
+ * against the same held in an OffHeapValueStore. Fills the map, then
+ * overwrites random keys with fresh values for a while, as a cache does.
+ * Run each mode in its own JVM:
+ * <pre>
+ * java -Xmx4g -XX:MaxDirectMemorySize=2g -cp benchmarks.jar com.benstopford.expiringmap.benchmarks.OffHeapFootprint heap
+ * java -Xmx4g -XX:MaxDirectMemorySize=2g -cp benchmarks.jar com.benstopford.expiringmap.benchmarks.OffHeapFootprint offHeap
+ * </pre>
+ * Optional further arguments: entries, value size in bytes, seconds of churn.
+ */
+public class OffHeapFootprint {
+    private static final AtomicLong pauses = new AtomicLong();
+    private static final AtomicLong totalPause = new AtomicLong();
+    private static final AtomicLong maxPause = new AtomicLong();
+
+    public static void main(String[] args) throws InterruptedException {
+        String mode = args.length > 0 ? args[0] : "heap";
+        int entries = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int valueSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        long churnSeconds = args.length > 3 ? Long.parseLong(args[3]) : 30;
+
+        ExpiringMap.Builder<Integer, byte[]> builder = ExpiringMap.builder();
+        OffHeapValueStore<Integer, byte[]> store = null;
+        if ("offHeap".equals(mode)) {
+            store = new OffHeapValueStore<>(Serializer.byteArray());
+            builder.valueStore(store);
+        }
+
+        try (ExpiringMap<Integer, byte[]> map = builder.build()) {
+            Integer[] keys = new Integer[entries];
+            for (int i = 0; i < entries; i++) {
+                keys[i] = i;
+                map.put(keys[i], new byte[valueSize], MINUTES.toMillis(60));
+            }
+            long heapAfterFill = usedHeapAfterGc();
+
+            listenForPauses();
+            long end = System.nanoTime() + SECONDS.toNanos(churnSeconds);
+            long writes = 0;
+            while (System.nanoTime() < end) {
+                for (int i = 0; i < 1000; i++)
+                    map.put(keys[ThreadLocalRandom.current().nextInt(entries)], new byte[valueSize], MINUTES.toMillis(60));
+                writes += 1000;
+            }
+
+            System.out.printf("mode=%s entries=%d valueSize=%d%n", mode, entries, valueSize);
+            System.out.printf("heap used after fill: %d MB%n", heapAfterFill >> 20);
+            if (store != null)
+                System.out.printf("off-heap slabs: %d MB allocated, %d MB used%n", store.allocatedBytes() >> 20, store.usedBytes() >> 20);
+            System.out.printf("churn: %d writes in %ds, %.0f writes/s%n", writes, churnSeconds, writes / (double) churnSeconds);
+            System.out.printf("gc pauses during churn: %d, total %d ms, max %d ms%n", pauses.get(), totalPause.get(), maxPause.get());
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void listenForPauses() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+                    return;
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                if (info.getGcAction().contains("major") || info.getGcAction().contains("minor")) {
+                    long duration = info.getGcInfo().getDuration();
+                    pauses.incrementAndGet();
+                    totalPause.addAndGet(duration);
+                    maxPause.accumulateAndGet(duration, Math::max);
+                }
+            }, null, null);
+        }
+    }
+}
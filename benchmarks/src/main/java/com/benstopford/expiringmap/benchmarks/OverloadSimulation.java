@@ -0,0 +1,74 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.util.Backpressure;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Writers putting unique keys with a 1ms timeout as fast as they can, so
+ * entries fall due faster than a single expiry thread with a small batch
+ * can sweep them. Compares a fixed sweeper with adaptive sweeps, and with
+ * each Backpressure: writes per second, writes rejected, the largest the
+ * map grew and the expiry lag at the end.
+ */
+public class OverloadSimulation {
+    private static final int WRITERS = 8;
+    private static final long RUN_MS = 3000;
+    private static final int SWEEP_BATCH = 16;
+    private static final long LAG_THRESHOLD_MS = 5;
+    private static final int DEPTH_THRESHOLD = 100_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("%-14s %12s %10s %10s %10s%n", "mode", "puts/s", "rejected", "peak size", "lag ms");
+        run("fixed", null);
+        run("adaptive", Backpressure.NONE);
+        run("adaptive+slow", Backpressure.SLOW);
+        run("adaptive+reject", Backpressure.REJECT);
+    }
+
+    private static void run(String mode, Backpressure backpressure) throws InterruptedException {
+        ExpiringMap.Builder<Long, String> builder = ExpiringMap.<Long, String>builder().sweepBatchSize(SWEEP_BATCH);
+        if (backpressure != null)
+            builder.adaptiveExpiry(LAG_THRESHOLD_MS, MILLISECONDS, DEPTH_THRESHOLD, backpressure);
+
+        LongAdder puts = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        long peak = 0;
+        long lag;
+        try (ExpiringMap<Long, String> map = builder.build()) {
+            CountDownLatch done = new CountDownLatch(WRITERS);
+            for (int w = 0; w < WRITERS; w++) {
+                long base = (long) w << 40;
+                new Thread(() -> {
+                    for (long i = base; running.get(); i++) {
+                        try {
+                            map.put(i, "value", 1);
+                            puts.increment();
+                        } catch (IllegalStateException e) {
+                            rejected.increment();
+                            Thread.yield();
+                        }
+                    }
+                    done.countDown();
+                }).start();
+            }
+            long end = System.nanoTime() + MILLISECONDS.toNanos(RUN_MS);
+            while (System.nanoTime() < end) {
+                peak = Math.max(peak, map.size());
+                Thread.sleep(10);
+            }
+            running.set(false);
+            done.await(10, TimeUnit.SECONDS);
+            lag = map.expiryLagNanos();
+        }
+        System.out.printf("%-14s %,12.0f %,10d %,10d %10.1f%n", mode, puts.sum() * 1000.0 / RUN_MS, rejected.sum(), peak,
+                backpressure == null ? Double.NaN : lag / 1e6);
+    }
+}
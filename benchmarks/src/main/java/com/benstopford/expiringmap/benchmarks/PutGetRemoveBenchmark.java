@@ -0,0 +1,44 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * Throughput of each operation against a prefilled map. Puts overwrite
+ * existing keys, so this is also the steady state path to profile with
+ * -prof gc. Remove is paired with a put to keep the map at size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PutGetRemoveBenchmark {
+
+    @Benchmark
+    public void put(MapState state) {
+        state.map.put(state.randomKey(), VALUE, TTL);
+    }
+
+    @Benchmark
+    public String get(MapState state) {
+        return state.map.get(state.randomKey());
+    }
+
+    @Benchmark
+    public void removeAndPut(MapState state) {
+        Integer key = state.randomKey();
+        state.map.remove(key);
+        state.map.put(key, VALUE, TTL);
+    }
+}
@@ -0,0 +1,108 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.LiveEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Scans a large map (10M entries by default) with entries(), sequentially
+ * and in parallel, while a writer puts short lived keys as fast as it can.
+ * Reports each scan's time, and the writer's throughput, put latency
+ * percentiles and the expiry lag, idle and during each scan, to show that
+ * scans hold up neither writers nor the expiry thread.
+ * <pre>
+ * java -Xmx3g -cp benchmarks.jar com.benstopford.expiringmap.benchmarks.ScanWhileWriting [entries] [compact]
+ * </pre>
+ */
+public class ScanWhileWriting {
+    private static final long IDLE_MS = 2000;
+    private static final long WRITE_TTL_MS = 5;
+    private static final int MAX_SAMPLES = 20_000_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        boolean compact = args.length > 1 && args[1].equals("compact");
+        ExpiringMap.Builder<Long, String> builder = ExpiringMap.<Long, String>builder().adaptiveExpiry(1, MILLISECONDS);
+        if (compact)
+            builder.compactEntries();
+
+        try (ExpiringMap<Long, String> map = builder.build()) {
+            for (long i = 0; i < entries; i++)
+                map.put(i, VALUE, TTL);
+            System.out.printf("entries=%,d layout=%s%n", entries, compact ? "compact" : "default");
+            System.out.printf("%-12s %10s %12s %10s %10s %10s %10s%n", "phase", "scan ms", "puts/s", "p50 us", "p99 us", "max us", "lag ms");
+
+            Writer writer = new Writer(map, entries);
+            Thread thread = new Thread(writer);
+            thread.start();
+
+            phase("idle", writer, map, () -> sleep(IDLE_MS));
+            phase("sequential", writer, map, () -> count(map.entries().mapToLong(LiveEntry::remainingNanos).count(), entries));
+            phase("parallel", writer, map, () -> count(map.entries().parallel().mapToLong(LiveEntry::remainingNanos).count(), entries));
+
+            writer.running.set(false);
+            thread.join();
+        }
+    }
+
+    private static void phase(String name, Writer writer, ExpiringMap<Long, String> map, Runnable work) {
+        int from = writer.count;
+        long start = System.nanoTime();
+        work.run();
+        long elapsed = System.nanoTime() - start;
+        int to = writer.count;
+
+        long[] latencies = Arrays.copyOfRange(writer.latencies, from, Math.max(from + 1, to));
+        Arrays.sort(latencies);
+        System.out.printf("%-12s %10s %,12.0f %10.1f %10.1f %10.1f %10.1f%n", name,
+                name.equals("idle") ? "-" : String.format("%,d", elapsed / 1_000_000),
+                (to - from) * 1e9 / elapsed, percentile(latencies, 50), percentile(latencies, 99),
+                latencies[latencies.length - 1] / 1000.0, map.expiryLagNanos() / 1e6);
+    }
+
+    private static void count(long scanned, int entries) {
+        if (scanned < entries)
+            throw new IllegalStateException("Scan saw " + scanned + " of " + entries + " entries");
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, sorted.length * percentile / 100)] / 1000.0;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Writer implements Runnable {
+        private final ExpiringMap<Long, String> map;
+        private final long firstKey;
+        private final long[] latencies = new long[MAX_SAMPLES];
+        private final AtomicBoolean running = new AtomicBoolean(true);
+        private volatile int count;
+
+        Writer(ExpiringMap<Long, String> map, long firstKey) {
+            this.map = map;
+            this.firstKey = firstKey;
+        }
+
+        @Override
+        public void run() {
+            for (long key = firstKey; running.get(); key++) {
+                long start = System.nanoTime();
+                map.put(key, VALUE, WRITE_TTL_MS);
+                if (count < MAX_SAMPLES)
+                    latencies[count++] = System.nanoTime() - start;
+            }
+        }
+    }
+}
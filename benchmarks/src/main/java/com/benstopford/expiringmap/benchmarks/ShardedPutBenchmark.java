@@ -0,0 +1,65 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpireMap;
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.ShardedExpiringMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * Put throughput of a single ExpiringMap (shards = 1) against a
+ * ShardedExpiringMap. Run at increasing thread counts (-t) to see how
+ * writes scale with cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedPutBenchmark {
+    private static final int KEYS = 1000000;
+
+    @Param({"1", "16", "64"})
+    public int shards;
+
+    private ExpireMap<Integer, String> map;
+    private Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = shards == 1 ? new ExpiringMap<>() : new ShardedExpiringMap<>(shards);
+        keys = new Integer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = i;
+            map.put(keys[i], VALUE, TTL);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ((AutoCloseable) map).close();
+    }
+
+    @Benchmark
+    public void put() {
+        map.put(keys[ThreadLocalRandom.current().nextInt(KEYS)], VALUE, TTL);
+    }
+}
@@ -0,0 +1,86 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Many threads reading one hot key with a short timeout, from a backend
+ * that takes a few milliseconds per load. Compares a get that loads and
+ * puts on a miss, computeIfAbsent, and computeIfAbsent refreshing ahead:
+ * how many loads hit the backend, and read latency percentiles.
+ */
+public class StampedeSimulation {
+    private static final int THREADS = 64;
+    private static final int READS_PER_THREAD = 2000;
+    private static final long TTL_MS = 20;
+    private static final long LOAD_MS = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("%-20s %8s %10s %10s %10s%n", "mode", "loads", "p50 us", "p99 us", "p99.9 us");
+        run("getThenPut", null);
+        run("computeIfAbsent", null);
+        run("refreshAhead", MILLISECONDS.toNanos(LOAD_MS * 2));
+    }
+
+    private static void run(String mode, Long refreshAheadNanos) throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        Function<String, String> backend = key -> {
+            loads.incrementAndGet();
+            sleep(LOAD_MS);
+            return "value";
+        };
+        ExpiringMap.Builder<String, String> builder = ExpiringMap.builder();
+        ExecutorService refresher = Executors.newSingleThreadExecutor();
+        if (refreshAheadNanos != null)
+            builder.refreshAhead(refreshAheadNanos, TimeUnit.NANOSECONDS, refresher);
+
+        long[] latencies = new long[THREADS * READS_PER_THREAD];
+        try (ExpiringMap<String, String> map = builder.build()) {
+            CountDownLatch done = new CountDownLatch(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                int offset = t * READS_PER_THREAD;
+                new Thread(() -> {
+                    for (int i = 0; i < READS_PER_THREAD; i++) {
+                        long start = System.nanoTime();
+                        if (mode.equals("getThenPut")) {
+                            if (map.get("hot") == null)
+                                map.put("hot", backend.apply("hot"), TTL_MS);
+                        } else {
+                            map.computeIfAbsent("hot", backend, TTL_MS);
+                        }
+                        latencies[offset + i] = System.nanoTime() - start;
+                        sleep(0);
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+        }
+        refresher.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-20s %8d %10.1f %10.1f %10.1f%n", mode, loads.get(),
+                percentile(latencies, 50), percentile(latencies, 99), percentile(latencies, 99.9));
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, sorted.length * percentile / 100)] / 1000.0;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
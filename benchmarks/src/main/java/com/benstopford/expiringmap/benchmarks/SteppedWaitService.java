@@ -0,0 +1,65 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.util.Clock;
+import com.benstopford.expiringmap.util.WaitService;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * WaitService that runs the expiry thread in lockstep with a simulation.
+ * <p>
+ * Each time the expiry thread waits it records when, on the simulation's
+ * clock, it wants to wake, and stays parked until the simulation calls
+ * step(). step() lets it run and returns once it is waiting again. So the
+ * expiry thread and the simulation never run at the same time, and a run
+ * is the same every time it is replayed.
+ */
+public class SteppedWaitService implements WaitService {
+    private final Clock clock;
+    private final Semaphore run = new Semaphore(0);
+    private final Semaphore waiting = new Semaphore(0);
+    private volatile long wakeAt = Long.MIN_VALUE;
+    private volatile boolean notified;
+
+    public SteppedWaitService(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public void doWait(long ms, int ns) throws InterruptedException {
+        long waitNanos = ms * 1000000 + ns;
+        long now = clock.now();
+        wakeAt = waitNanos == 0 || now + waitNanos < now ? Long.MAX_VALUE : now + waitNanos;
+        waiting.release();
+        run.acquire();
+    }
+
+    @Override
+    public void doNotify() {
+        notified = true;
+    }
+
+    /**
+     * @return when the expiry thread next needs to run: now if it has been notified, else the time it asked to
+     * wake at, or Long.MAX_VALUE if it is waiting to be notified
+     */
+    public long nextWake() {
+        return notified ? clock.now() : wakeAt;
+    }
+
+    /**
+     * Wait for the expiry thread to first wait, after the map is built.
+     */
+    public void awaitStarted() {
+        waiting.acquireUninterruptibly();
+    }
+
+    /**
+     * Let the expiry thread run, and return once it is waiting again.
+     */
+    public void step() {
+        notified = false;
+        run.release();
+        waiting.acquireUninterruptibly();
+    }
+}
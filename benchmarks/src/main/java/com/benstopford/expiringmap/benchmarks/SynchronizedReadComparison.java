@@ -0,0 +1,93 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.ExpiringMap;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.benstopford.expiringmap.benchmarks.MapState.TTL;
+import static com.benstopford.expiringmap.benchmarks.MapState.VALUE;
+
+/**
+ * Read throughput of ExpiringMap, whose reads take no lock, against the
+ * same map with reads made to share the write monitor, as they used to.
+ * One writer (putting and removing) runs for every 50 readers, on at least
+ * four threads. The gain depends on the number of cores; on one core
+ * there is little contention to remove.
+ * <pre>
+ * java -cp benchmarks.jar com.benstopford.expiringmap.benchmarks.SynchronizedReadComparison [threads]
+ * </pre>
+ */
+public class SynchronizedReadComparison {
+    private static final int KEYS = 1000;
+    private static final int READERS_PER_WRITER = 50;
+    private static final long RUN_MS = 3000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+        long locked = readsPerSecond(new SynchronizedReadMap<>(), threads);
+        long lockFree = readsPerSecond(new ExpiringMap<>(), threads);
+        System.out.printf("threads: %d, synchronized reads/s: %,d, lock free reads/s: %,d, gain: %.1fx%n",
+                threads, locked, lockFree, (double) lockFree / Math.max(1, locked));
+    }
+
+    private static long readsPerSecond(ExpiringMap<Integer, String> map, int threads) throws InterruptedException {
+        LongAdder reads = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                boolean writer = t % (READERS_PER_WRITER + 1) == 0;
+                executor.execute(() -> {
+                    started.countDown();
+                    for (int key = 0; running.get(); key = (key + 1) % KEYS) {
+                        if (!writer) {
+                            map.get(key);
+                            reads.increment();
+                        } else if (key % 10 == 0) {
+                            map.remove(key);
+                        } else {
+                            map.put(key, VALUE, TTL);
+                        }
+                    }
+                });
+            }
+            started.await();
+            long start = System.nanoTime();
+            Thread.sleep(RUN_MS);
+            running.set(false);
+            long elapsed = System.nanoTime() - start;
+            return reads.sum() * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        } finally {
+            running.set(false);
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            map.close();
+        }
+    }
+
+    /**
+     * Reproduces the previous behaviour, where reads shared the put monitor
+     */
+    static class SynchronizedReadMap<K, V> extends ExpiringMap<K, V> {
+        @Override
+        public synchronized void put(K key, V value, long timeoutMs) {
+            super.put(key, value, timeoutMs);
+        }
+
+        @Override
+        public synchronized V get(K key) {
+            return super.get(key);
+        }
+
+        @Override
+        public synchronized void remove(K key) {
+            super.remove(key);
+        }
+    }
+}
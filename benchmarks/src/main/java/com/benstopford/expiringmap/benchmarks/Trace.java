@@ -0,0 +1,167 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * A timed sequence of puts, gets and removes, held in parallel arrays so
+ * traces of many millions of operations stay small.
+ * <p>
+ * Traces are read from text files with one operation per line: the time
+ * in milliseconds from the start of the trace, the operation, the key and,
+ * for puts, the timeout in milliseconds. Times must not go backwards.
+ * Blank lines and lines starting with # are skipped.
+ * <pre>
+ * 0 put user:17 30000
+ * 12 get user:17
+ * 15 remove user:17
+ * </pre>
+ */
+public class Trace {
+    public static final byte PUT = 0;
+    public static final byte GET = 1;
+    public static final byte REMOVE = 2;
+
+    private long[] times;
+    private byte[] ops;
+    private long[] keys;
+    private long[] timeoutsMs;
+    private int length;
+
+    private Trace(int capacity) {
+        times = new long[capacity];
+        ops = new byte[capacity];
+        keys = new long[capacity];
+        timeoutsMs = new long[capacity];
+    }
+
+    /**
+     * Poisson arrivals at the rate given, of keys drawn from a Zipfian
+     * distribution, with timeouts spread evenly between the bounds.
+     *
+     * @param readFraction   the share of operations that are gets
+     * @param removeFraction the share of operations that are removes; the rest are puts
+     */
+    public static Trace synthetic(int length, double opsPerSecond, int keys, double exponent,
+                                  double readFraction, double removeFraction,
+                                  long minTimeoutMs, long maxTimeoutMs, long seed) {
+        Integer[] keyTrace = ZipfianTrace.generate(keys, exponent, length, seed);
+        Random random = new Random(seed + 1);
+        Trace trace = new Trace(length);
+        double meanGapNanos = SECONDS.toNanos(1) / opsPerSecond;
+        double time = 0;
+        for (int i = 0; i < length; i++) {
+            time += -Math.log(1 - random.nextDouble()) * meanGapNanos;
+            double kind = random.nextDouble();
+            byte op = kind < readFraction ? GET : kind < readFraction + removeFraction ? REMOVE : PUT;
+            long timeout = op != PUT ? 0 : minTimeoutMs + (long) (random.nextDouble() * (maxTimeoutMs - minTimeoutMs));
+            trace.add((long) time, op, keyTrace[i], timeout);
+        }
+        return trace;
+    }
+
+    public static Trace read(Path file) throws IOException {
+        Trace trace = new Trace(1024);
+        Map<String, Long> keyIds = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] fields = line.split("\\s+");
+                try {
+                    long time = MILLISECONDS.toNanos(Long.parseLong(fields[0]));
+                    if (trace.length > 0 && time < trace.times[trace.length - 1])
+                        throw new IOException("Time goes backwards at line " + lineNumber);
+                    byte op = op(fields[1]);
+                    Long key = keyIds.computeIfAbsent(fields[2], k -> (long) keyIds.size());
+                    long timeout = op == PUT ? Long.parseLong(fields[3]) : 0;
+                    trace.add(time, op, key, timeout);
+                } catch (RuntimeException e) {
+                    throw new IOException("Can't parse line " + lineNumber + ": " + line, e);
+                }
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Write the trace in the format read() reads.
+     */
+    public void write(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < length; i++) {
+                writer.write(NANOSECONDS.toMillis(times[i]) + " "
+                        + (ops[i] == PUT ? "put" : ops[i] == GET ? "get" : "remove") + " " + keys[i]
+                        + (ops[i] == PUT ? " " + timeoutsMs[i] : ""));
+                writer.newLine();
+            }
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the time of the operation, in nanoseconds from the start of the trace
+     */
+    public long time(int i) {
+        return times[i];
+    }
+
+    public byte op(int i) {
+        return ops[i];
+    }
+
+    public long key(int i) {
+        return keys[i];
+    }
+
+    public long timeoutMs(int i) {
+        return timeoutsMs[i];
+    }
+
+    private void add(long time, byte op, long key, long timeoutMs) {
+        if (length == times.length) {
+            int capacity = length * 2;
+            times = Arrays.copyOf(times, capacity);
+            ops = Arrays.copyOf(ops, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            timeoutsMs = Arrays.copyOf(timeoutsMs, capacity);
+        }
+        times[length] = time;
+        ops[length] = op;
+        keys[length] = key;
+        timeoutsMs[length] = timeoutMs;
+        length++;
+    }
+
+    private static byte op(String name) {
+        switch (name) {
+            case "put":
+                return PUT;
+            case "get":
+                return GET;
+            case "remove":
+                return REMOVE;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+}
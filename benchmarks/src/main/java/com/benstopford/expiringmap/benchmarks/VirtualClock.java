@@ -0,0 +1,23 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.util.Clock;
+
+/**
+ * A Clock that only moves when it is told to, for simulations.
+ */
+public class VirtualClock implements Clock {
+    private volatile long now;
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Move the clock to the time, in nanoseconds. It never goes backwards.
+     */
+    public void set(long nanos) {
+        if (nanos > now)
+            now = nanos;
+    }
+}
@@ -0,0 +1,123 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import com.benstopford.expiringmap.AsyncExpireMap;
+import com.benstopford.expiringmap.ExpiringMap;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 100,000 clients, each a virtual thread, reading through a map over a
+ * slow backend and writing to it: 80% computes, 20% puts, over a skewed
+ * key space with a short timeout. Compares clients calling the map
+ * directly (computeIfAbsent and put) with calling it through
+ * AsyncExpireMap: throughput, backend loads and op latency percentiles.
+ * <p>
+ * Virtual threads need Java 21. On older JVMs the clients run on a fixed
+ * pool of platform threads instead, which still exercises the contention
+ * but not pinning. On 21, run with -Djdk.tracePinnedThreads=full to check
+ * that no client pins its carrier in the map.
+ */
+public class VirtualThreadClients {
+    private static final int CLIENTS = 100_000;
+    private static final int OPS_PER_CLIENT = 20;
+    private static final int KEYS = 10_000;
+    private static final long TTL_MS = 50;
+    private static final long LOAD_MS = 1;
+    private static final int FALLBACK_THREADS = 512;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : CLIENTS;
+        System.out.println(virtualThreads() ? "clients on virtual threads" : "no virtual threads, clients on " + FALLBACK_THREADS + " platform threads");
+        System.out.printf("%-10s %12s %8s %10s %10s %10s%n", "mode", "ops/s", "loads", "p50 us", "p99 us", "p99.9 us");
+        run("blocking", clients);
+        run("async", clients);
+    }
+
+    private static void run(String mode, int clients) throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        Function<Integer, String> backend = key -> {
+            loads.incrementAndGet();
+            sleep(LOAD_MS);
+            return "value" + key;
+        };
+        long[] latencies = new long[clients * OPS_PER_CLIENT];
+
+        ExecutorService clientThreads = newClientExecutor();
+        ExecutorService loaders = newClientExecutor();
+        long start = System.nanoTime();
+        try (ExpiringMap<Integer, String> map = new ExpiringMap<>()) {
+            AsyncExpireMap<Integer, String> async = new AsyncExpireMap<>(map, loaders);
+            for (int c = 0; c < clients; c++) {
+                int offset = c * OPS_PER_CLIENT;
+                clientThreads.execute(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < OPS_PER_CLIENT; i++) {
+                        int key = skewed(random);
+                        boolean write = random.nextInt(5) == 0;
+                        long opStart = System.nanoTime();
+                        if (mode.equals("blocking")) {
+                            if (write)
+                                map.put(key, "written", TTL_MS);
+                            else
+                                map.computeIfAbsent(key, backend, TTL_MS);
+                        } else {
+                            if (write)
+                                async.putAsync(key, "written", TTL_MS).join();
+                            else
+                                async.computeAsync(key, backend, TTL_MS).join();
+                        }
+                        latencies[offset + i] = System.nanoTime() - opStart;
+                    }
+                });
+            }
+            clientThreads.shutdown();
+            clientThreads.awaitTermination(1, TimeUnit.HOURS);
+        }
+        long elapsed = System.nanoTime() - start;
+        loaders.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-10s %,12.0f %8d %10.1f %10.1f %10.1f%n", mode, latencies.length * 1e9 / elapsed, loads.get(),
+                percentile(latencies, 50), percentile(latencies, 99), percentile(latencies, 99.9));
+    }
+
+    /**
+     * Roughly Zipfian: key k is picked with probability falling off as 1/k.
+     */
+    private static int skewed(ThreadLocalRandom random) {
+        return (int) Math.min(KEYS - 1, Math.exp(random.nextDouble() * Math.log(KEYS)) - 1);
+    }
+
+    private static ExecutorService newClientExecutor() throws Exception {
+        if (virtualThreads())
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        return Executors.newFixedThreadPool(FALLBACK_THREADS);
+    }
+
+    private static boolean virtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, sorted.length * percentile / 100)] / 1000.0;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
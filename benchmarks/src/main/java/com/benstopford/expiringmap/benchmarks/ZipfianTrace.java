@@ -0,0 +1,33 @@
+package com.benstopford.expiringmap.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A trace of key accesses drawn from a Zipfian distribution, where the
+ * key of rank r is used in proportion to 1 / r^exponent. Around 0.8 to 1.0
+ * is typical of web and database caches.
+ */
+public class ZipfianTrace {
+
+    public static Integer[] generate(int keys, double exponent, int length, long seed) {
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int rank = 1; rank <= keys; rank++) {
+            sum += 1 / Math.pow(rank, exponent);
+            cumulative[rank - 1] = sum;
+        }
+
+        Integer[] boxed = new Integer[keys];
+        for (int i = 0; i < keys; i++)
+            boxed[i] = i;
+
+        Random random = new Random(seed);
+        Integer[] trace = new Integer[length];
+        for (int i = 0; i < length; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            trace[i] = boxed[Math.min(index < 0 ? -index - 1 : index, keys - 1)];
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,132 @@
+package com.benstopford.expiringmap;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Non-blocking facade over an ExpireMap, for callers that mustn't wait on
+ * the map, such as event loops.
+ * <p>
+ * getAsync reads an ExpiringMap or ShardedExpiringMap on the calling thread
+ * and returns a completed future. Such a read takes no lock, except that it
+ * can wait briefly on a write to the same structure that is in progress:
+ * with compactEntries(), a resize of the table; with an OffHeapValueStore, a
+ * write to the store. Removing an entry the read finds expired takes the
+ * scheduler's lock, so that is done on the executor. Reads of any other
+ * ExpireMap, and writes, which take the map's write lock, all run on the
+ * executor, as do the loads of computeAsync.
+ * <p>
+ * computeAsync loads each missing key once, however many callers ask for
+ * it at the same time. Rather than waiting for that load, as
+ * ExpiringMap.computeIfAbsent does, the others are handed its future. A
+ * null value isn't put in the map, and a load that fails completes its
+ * future exceptionally and leaves the key to be loaded by the next caller.
+ * <p>
+ * The locks the map takes are ReentrantLocks rather than monitors, so where
+ * the executor runs virtual threads, one that has to wait for a lock parks
+ * rather than pinning its carrier thread.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class AsyncExpireMap<K, V> {
+    private final ExpireMap<K, V> map;
+    private final Executor executor;
+    private final Map<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * @param executor runs writes and loads
+     */
+    public AsyncExpireMap(ExpireMap<K, V> map, Executor executor) {
+        this.map = map;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<V> getAsync(K key) {
+        if (!(map instanceof ExpiringMap) && !(map instanceof ShardedExpiringMap))
+            return CompletableFuture.supplyAsync(() -> map.get(key), executor);
+        try {
+            return CompletableFuture.completedFuture(map instanceof ExpiringMap
+                    ? ((ExpiringMap<K, V>) map).read(key, executor)
+                    : ((ShardedExpiringMap<K, V>) map).read(key, executor));
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    public CompletableFuture<Void> putAsync(K key, V value, long timeoutMs) {
+        validate(timeoutMs);
+        return CompletableFuture.runAsync(() -> map.put(key, value, timeoutMs), executor);
+    }
+
+    public CompletableFuture<Void> removeAsync(K key) {
+        return CompletableFuture.runAsync(() -> map.remove(key), executor);
+    }
+
+    /**
+     * Get the key's value, loading it on the executor if the key is missing
+     * (or has expired). Callers that ask for a key while it is loading are
+     * given the same future.
+     */
+    public CompletableFuture<V> computeAsync(K key, Function<? super K, ? extends V> loader, long timeoutMs) {
+        validate(timeoutMs);
+        CompletableFuture<V> read = getAsync(key);
+        if (!read.isDone())
+            return read.thenCompose(value -> value != null ? CompletableFuture.completedFuture(value) : load(key, loader, timeoutMs));
+        if (read.isCompletedExceptionally() || read.join() != null)
+            return read;
+        return load(key, loader, timeoutMs);
+    }
+
+    private CompletableFuture<V> load(K key, Function<? super K, ? extends V> loader, long timeoutMs) {
+        CompletableFuture<V> loaded = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loading.putIfAbsent(key, loaded);
+        if (inFlight != null)
+            return inFlight;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    //another load may have finished since we missed the key
+                    V value = map.get(key);
+                    if (value == null) {
+                        value = loader.apply(key);
+                        if (value != null)
+                            map.put(key, value, timeoutMs);
+                    }
+                    loaded.complete(value);
+                } catch (Throwable e) {
+                    loaded.completeExceptionally(e);
+                } finally {
+                    loading.remove(key, loaded);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(key, loaded);
+            loaded.completeExceptionally(e);
+        }
+        return loaded;
+    }
+
+    /**
+     * @return the map this is a facade over
+     */
+    public ExpireMap<K, V> map() {
+        return map;
+    }
+
+    private static void validate(long timeoutMs) {
+        if (timeoutMs < 0)
+            throw new IllegalArgumentException("Timeout must be a positive value");
+    }
+
+    private static <V> CompletableFuture<V> failed(Throwable e) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
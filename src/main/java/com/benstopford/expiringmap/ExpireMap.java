@@ -1,5 +1,9 @@
 package com.benstopford.expiringmap;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 public interface ExpireMap<K, V> {
 
     /**
@@ -29,5 +33,41 @@ public interface ExpireMap<K, V> {
      */
     void remove(K key);
 
+    /**
+     * Put each of the entries, all with the same timeout.
+     * By default this is a put per entry; implementations may do it as a batch.
+     *
+     * @param entries
+     * @param timeoutMs
+     */
+    default void putAll(Map<? extends K, ? extends V> entries, long timeoutMs) {
+        for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet())
+            put(entry.getKey(), entry.getValue(), timeoutMs);
+    }
+
+    /**
+     * Get the values associated with each of the keys.
+     *
+     * @param keys
+     * @return the keys present in the map, with their values
+     */
+    default Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> found = new HashMap<>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null)
+                found.put(key, value);
+        }
+        return found;
+    }
 
+    /**
+     * Remove the entries associated with each of the keys, if any.
+     *
+     * @param keys
+     */
+    default void removeAll(Collection<? extends K> keys) {
+        for (K key : keys)
+            remove(key);
+    }
 }
@@ -1,12 +1,44 @@
 package com.benstopford.expiringmap;
 
+import com.benstopford.expiringmap.util.Backpressure;
 import com.benstopford.expiringmap.util.Clock;
+import com.benstopford.expiringmap.util.EntryTable;
+import com.benstopford.expiringmap.util.EvictionPolicy;
 import com.benstopford.expiringmap.util.ExpiryEntry;
+import com.benstopford.expiringmap.util.ExpiryScheduler;
+import com.benstopford.expiringmap.util.ParkingWaitService;
+import com.benstopford.expiringmap.util.PriorityQueueScheduler;
+import com.benstopford.expiringmap.util.RemovalCause;
+import com.benstopford.expiringmap.util.RemovalListener;
+import com.benstopford.expiringmap.util.Serializer;
+import com.benstopford.expiringmap.util.ValueStore;
 import com.benstopford.expiringmap.util.WaitService;
+import com.benstopford.expiringmap.util.Weigher;
 
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
@@ -15,94 +47,1055 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
  *  Items are written along with an expiry duration.
  *  <p>
  *
- *  Expiry times are added into a priority blocking queue so the next
- *  entry to expire will be at the head.
+ *  Expiry times are added to an ExpiryScheduler which hands back entries
+ *  as they fall due. By default this is a priority queue, so the next entry
+ *  to expire is at the head. A TimingWheelScheduler can be passed in instead
+ *  where O(1) scheduling matters more than exact deadlines.
  *  <p>
  *  A separate thread reads these, waits for the expiry time and then
  *  removes them from the map.
  *  <p>
  *  Finally new writes will notify the potentially waiting expiry
- *  thread if something more imminent turns up.
+ *  thread if something more imminent turns up. Each map has its own
+ *  WaitService, so this never wakes the expiry threads of other maps.
+ *  <p>
+ *  The expiry thread belongs to the map unless an ExpiryExecutor is
+ *  passed in, in which case its threads are shared with other maps.
+ *  Either way close() releases it.
+ *  <p>
+ *  The backing map holds the scheduled entry for each key. Overwriting a
+ *  key moves its existing entry to the new deadline, so steady state writes
+ *  allocate nothing; removing a key cancels it. The expiry thread only
+ *  removes a key if it still maps to the entry that expired.
+ *  <p>
+ *  putAll, getAll and removeAll work on a batch as one operation: a single
+ *  clock read, lock acquisition, scheduler insert and wakeup for the lot.
+ *  <p>
+ *  Reads and removes take no lock. They go straight to the concurrent
+ *  backing map, so they never queue behind writers or the expiry thread.
+ *  Writes are serialised on a ReentrantLock rather than the map's monitor,
+ *  so a virtual thread waiting to write parks rather than pinning its
+ *  carrier. AsyncExpireMap puts a CompletableFuture API over the map.
+ *  <p>
+ *  Reads check the entry's deadline against the clock, so an expired value
+ *  is never returned however far behind the expiry thread is. A read that
+ *  finds one removes it there and then. The expiry thread just reclaims
+ *  the memory of keys that aren't read again, so its sweeps can be spaced
+ *  out (Builder.sweepInterval). size() counts expired entries not yet swept.
+ *  <p>
+ *  Built with Builder.expireAfterAccess(), reads restart an entry's timeout.
+ *  A read only pushes the entry's deadline later, with a compare and set;
+ *  it is the expiry thread that, finding the deadline has moved when the
+ *  entry comes due, schedules it again. So an entry read constantly is
+ *  rescheduled once per timeout rather than once per read.
+ *  <p>
+ *  A map can also be bounded, by entry count or by total weight, with an
+ *  EvictionPolicy (LruPolicy or TinyLfuPolicy). Writes evict down to the
+ *  maximum as they go. Reads are only recorded in a lossy buffer for the
+ *  policy to replay, so they still take no lock.
+ *  <p>
+ *  Values normally live in the entries. A ValueStore can hold them
+ *  elsewhere instead, e.g. OffHeapValueStore keeps them off the heap, and
+ *  gets back the space of each entry that leaves the map.
+ *  <p>
+ *  computeIfAbsent loads missing keys through a loader, once per key however
+ *  many threads ask at the same time; the rest wait for its result. With
+ *  Builder.refreshAhead() a read that finds its entry close to expiry
+ *  reloads it in the background, so popular keys are replaced before they
+ *  expire rather than missed after.
+ *  <p>
+ *  A RemovalListener can be told of each entry that leaves the map, and
+ *  why. Removals are queued by the thread that removes the entry and
+ *  delivered in batches on an executor, so a slow listener holds up neither
+ *  writers nor the expiry thread.
+ *  <p>
+ *  entries(), forEach() and spliterator() scan the live entries, with the
+ *  time each has left, without taking the write lock. Scans split for
+ *  parallel streams.
+ *  <p>
+ *  snapshot() writes the live entries to disk with the time each has left,
+ *  and restore() loads them back, e.g. to start warm after a restart.
+ *  <p>
+ *  With Builder.adaptiveExpiry() the expiry thread measures how far behind
+ *  its deadlines it is, and sweeps harder while past a threshold. The map
+ *  can also push back on writers then, or while it holds more than a
+ *  given number of entries, by having them sweep too or by rejecting them.
+ *  <p>
+ *  Builder.compactEntries() indexes keys in a table whose nodes are the
+ *  entries themselves, so each key costs one object rather than an entry
+ *  and a ConcurrentHashMap node.
+ *  <p>
+ *  Builder.recordStats() has the map count hits, misses, writes, removals
+ *  and expirations, and the lag between deadlines and removal (MapStats),
+ *  optionally over JMX. Maps built without it record nothing.
  *
  *  @param <K> the type of keys maintained by this map
  *  @param <V> the type of mapped values
  */
 
-public class ExpiringMap<K, V> implements ExpireMap<K, V> {
-    private Map<K, V> backingMap = new ConcurrentHashMap<>();
-    private Clock clock;
-    private WaitService waitService;
-    private PriorityBlockingQueue<ExpiryEntry<K>> queue = new PriorityBlockingQueue<>(
-            10, (e1, e2) -> e1.expiry().compareTo(e2.expiry()));
+public class ExpiringMap<K, V> implements ExpireMap<K, V>, AutoCloseable {
+    private static final int RESTORE_BATCH_SIZE = 4096;
+    private static final long SLOWDOWN_NANOS = 100_000;
+    private final Map<K, ExpiryEntry<K, V>> backingMap;
+    private final EntryTable<K, V> entryTable;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Clock clock;
+    private final ExpiryScheduler<K, V> scheduler;
+    private final ExpiryExecutor executor;
+    private final boolean ownsExecutor;
+    private final ExpiryExecutor.Registration registration;
+    private final ExpiryService<K, V> expiryService;
+    private final EvictionPolicy<K, V> policy;
+    private final Weigher<K, V> weigher;
+    private final ValueStore<K, V> values;
+    private final MapStats stats;
+    private final ObjectName statsName;
+    private final Map<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final long refreshAheadNanos;
+    private final Executor refreshExecutor;
+    private final RemovalNotifier<K, V> removals;
+    private final boolean expireAfterAccess;
+    private final Backpressure backpressure;
+    private final int depthThreshold;
+    private volatile boolean closed;
 
 
     public ExpiringMap() {
-        this(System::nanoTime);
+        this(new Builder<>());
     }
 
     public ExpiringMap(Clock clock) {
-        this(clock, WaitService.DEFAULT);
+        this(new Builder<K, V>().clock(clock));
     }
 
     public ExpiringMap(Clock clock, WaitService waitService) {
-        this.clock = clock;
-        this.waitService = waitService;
-        startExpiryService();
+        this(new Builder<K, V>().clock(clock).waitService(waitService));
     }
 
-    private void startExpiryService() {
-        Thread thread = new Thread(() -> {
-            ExpiryService service = new ExpiryService<K>();
-            while (true) {
-                try {
-                    service.attemptExpiry(clock, waitService, queue, backingMap);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        });
-        thread.setDaemon(true);
-        thread.start();
+    public ExpiringMap(ExpiryScheduler<K, V> scheduler) {
+        this(new Builder<K, V>().scheduler(scheduler));
+    }
+
+    public ExpiringMap(Clock clock, WaitService waitService, ExpiryScheduler<K, V> scheduler) {
+        this(new Builder<K, V>().clock(clock).waitService(waitService).scheduler(scheduler));
+    }
+
+    public ExpiringMap(ExpiryExecutor executor) {
+        this(new Builder<K, V>().executor(executor));
+    }
+
+    public ExpiringMap(Clock clock, ExpiryScheduler<K, V> scheduler, ExpiryExecutor executor) {
+        this(new Builder<K, V>().clock(clock).scheduler(scheduler).executor(executor));
+    }
+
+    private ExpiringMap(Builder<K, V> builder) {
+        this.entryTable = builder.compactEntries ? new EntryTable<>() : null;
+        this.backingMap = entryTable != null ? entryTable : new ConcurrentHashMap<>();
+        this.clock = builder.clock;
+        this.scheduler = builder.scheduler != null ? builder.scheduler : new PriorityQueueScheduler<>();
+        this.policy = builder.policy;
+        this.weigher = builder.weigher;
+        this.values = builder.values;
+        this.refreshAheadNanos = builder.refreshAheadNanos;
+        this.refreshExecutor = builder.refreshExecutor;
+        this.expireAfterAccess = builder.expireAfterAccess;
+        this.backpressure = builder.backpressure;
+        this.depthThreshold = builder.depthThreshold;
+        this.removals = builder.removalListener != null ? new RemovalNotifier<>(builder.removalListener, builder.removalExecutor) : null;
+        this.stats = builder.recordStats ? new MapStats(backingMap::size, scheduler::size) : null;
+        this.statsName = builder.statsName != null ? stats.register(builder.statsName) : null;
+        this.ownsExecutor = builder.executor == null;
+        this.executor = ownsExecutor ? new ExpiryExecutor(builder.waitService) : builder.executor;
+        this.expiryService = new ExpiryService<>(builder.sweepBatchSize, builder.sweepIntervalNanos, builder.lagThresholdNanos, this::expired);
+        this.registration = executor.register(() -> expiryService.expire(clock, scheduler, backingMap));
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>();
     }
 
     @Override
-    public synchronized void put(K key, V value, long timeoutMs) {
+    public void put(K key, V value, long timeoutMs) {
         validate(timeoutMs);
+        pushBack();
+        writeLock.lock();
+        try {
+            if (closed)
+                throw new IllegalStateException("Map is closed");
+            putLocked(key, value, timeoutMs);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * The body of put, for callers that already hold the write lock. It applies
+     * no backpressure, as that would stall every writer behind the lock.
+     */
+    private void putLocked(K key, V value, long timeoutMs) {
+        if (stats != null)
+            stats.recordPut();
 
-        long expiryTime = clock.now() + MILLISECONDS.toNanos(timeoutMs);
+        long expiryTime = deadline(clock.now(), timeoutMs);
 
-        queue.add(new ExpiryEntry<>(expiryTime, key));
+        ExpiryEntry<K, V> entry = backingMap.get(key);
+        long previousExpiry = entry == null ? 0 : entry.expiry();
+        if (entry != null && overwrite(entry, value, expiryTime, timeoutMs)) {
+            if (expiryTime < previousExpiry)
+                wakeEviction(expiryTime);
+            evictToCapacity();
+            return;
+        }
 
-        wakeEvictionIfEarlierEntry(expiryTime);
+        //publish before scheduling, else an entry that is already due could be
+        //swept before it is in the map and never be removed
+        entry = add(key, value, expiryTime, MILLISECONDS.toNanos(timeoutMs));
+        ExpiryEntry<K, V> previous = backingMap.put(key, entry);
+        if (scheduler.schedule(entry))
+            wakeEviction(expiryTime);
 
-        backingMap.put(key, value);
+        cancel(previous, RemovalCause.REPLACED);
+        evictToCapacity();
     }
 
-    private void wakeEvictionIfEarlierEntry(long expiryTime) {
-        ExpiryEntry<K> head = queue.peek();
-        if (head != null && expiryTime <= head.expiry()) {
-            synchronized (WaitService.class) {
-                waitService.doNotify();
+    /**
+     * Put each of the entries, all with the same timeout, holding the write
+     * lock once for the batch. New entries are published and then scheduled
+     * together, and the expiry thread is woken at most once.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> entries, long timeoutMs) {
+        validate(timeoutMs);
+        pushBack();
+        writeLock.lock();
+        try {
+            if (closed)
+                throw new IllegalStateException("Map is closed");
+            if (stats != null)
+                stats.recordPuts(entries.size());
+
+            long expiryTime = deadline(clock.now(), timeoutMs);
+            boolean wake = false;
+            List<ExpiryEntry<K, V>> added = new ArrayList<>(entries.size());
+            List<ExpiryEntry<K, V>> replaced = new ArrayList<>();
+            for (Map.Entry<? extends K, ? extends V> mapping : entries.entrySet()) {
+                K key = mapping.getKey();
+                V value = mapping.getValue();
+                ExpiryEntry<K, V> entry = backingMap.get(key);
+                if (entry != null) {
+                    long previousExpiry = entry.expiry();
+                    if (overwrite(entry, value, expiryTime, timeoutMs)) {
+                        wake |= expiryTime < previousExpiry;
+                        continue;
+                    }
+                }
+                entry = add(key, value, expiryTime, MILLISECONDS.toNanos(timeoutMs));
+                ExpiryEntry<K, V> previous = backingMap.put(key, entry);
+                if (previous != null)
+                    replaced.add(previous);
+                added.add(entry);
             }
+
+            //as with put, the whole batch is published before it is scheduled
+            wake |= scheduler.scheduleAll(added);
+            scheduler.cancelAll(replaced);
+            for (ExpiryEntry<K, V> previous : replaced)
+                released(previous, RemovalCause.REPLACED);
+            if (wake)
+                wakeEviction(expiryTime);
+            evictToCapacity();
+        } finally {
+            writeLock.unlock();
         }
     }
 
+    /**
+     * A new entry, counted by the eviction policy but not yet published or scheduled.
+     */
+    private ExpiryEntry<K, V> add(K key, V value, long expiryTime, long timeoutNanos) {
+        ExpiryEntry<K, V> entry = values != null ? values.create(expiryTime, key, value)
+                : entryTable != null ? entryTable.newEntry(expiryTime, key, value)
+                : new ExpiryEntry<>(expiryTime, key, value);
+        if (expireAfterAccess)
+            entry.setTimeout(timeoutNanos);
+        if (policy != null)
+            policy.add(entry, weigher.weigh(key, value));
+        return entry;
+    }
+
+    private void evictToCapacity() {
+        if (policy == null)
+            return;
+        ExpiryEntry<K, V> victim;
+        while ((victim = policy.evict()) != null) {
+            scheduler.cancel(victim);
+            if (backingMap.remove(victim.key(), victim)) {
+                if (stats != null)
+                    stats.recordEviction();
+                released(victim, RemovalCause.CAPACITY);
+            }
+        }
+    }
+
+    /**
+     * Reuse the key's existing entry, so a steady stream of overwrites allocates nothing.
+     * Fails if the entry has already been handed to the expiry thread.
+     */
+    private boolean overwrite(ExpiryEntry<K, V> entry, V value, long expiryTime, long timeoutMs) {
+        if (!scheduler.reschedule(entry, expiryTime))
+            return false;
+
+        if (expireAfterAccess)
+            entry.setTimeout(MILLISECONDS.toNanos(timeoutMs));
+        if (removals != null)
+            removals.removed(entry.key(), values == null ? entry.value() : values.read(entry), RemovalCause.REPLACED);
+        if (values == null)
+            entry.setValue(value);
+        else
+            values.update(entry, value);
+        if (policy != null)
+            policy.update(entry, weigher.weigh(entry.key(), value));
+        return true;
+    }
+
+    /**
+     * Apply the map's Backpressure to a writer, while expiry is behind or the map is over its depth threshold.
+     */
+    private void pushBack() {
+        if (backpressure == Backpressure.NONE || !overloaded())
+            return;
+        if (backpressure == Backpressure.REJECT)
+            throw new IllegalStateException("Map is overloaded: expiry lag " + expiryService.lagNanos() + "ns, " + backingMap.size() + " entries");
+        expiryService.assist(clock, scheduler, backingMap);
+        if (backingMap.size() > depthThreshold)
+            LockSupport.parkNanos(SLOWDOWN_NANOS);
+    }
+
+    private boolean overloaded() {
+        return expiryService.behind() || backingMap.size() > depthThreshold;
+    }
+
+    /**
+     * The earliest deadline may have moved forward, to the one given.
+     */
+    private void wakeEviction(long deadline) {
+        if (expiryService.shouldWakeFor(deadline))
+            registration.wake();
+    }
+
+    /**
+     * Saturates rather than overflowing, so very long timeouts never wrap round into the past.
+     */
+    static long deadline(long now, long timeoutMs) {
+        return deadlineNanos(now, MILLISECONDS.toNanos(timeoutMs));
+    }
+
+    private static long deadlineNanos(long now, long timeoutNanos) {
+        long deadline = now + timeoutNanos;
+        return now > 0 && deadline < 0 ? Long.MAX_VALUE : deadline;
+    }
+
     private void validate(long timeoutMs) {
         if (timeoutMs < 0)
             throw new IllegalArgumentException("Timeout must be a positive value");
     }
 
     @Override
-    public synchronized V get(K key) {
-        return backingMap.get(key);
+    public V get(K key) {
+        return read(key, null);
+    }
+
+    /**
+     * As get, but an expired entry is removed on the executor rather than on
+     * the calling thread, as removing it takes the scheduler's lock.
+     *
+     * @param cleanup removes expired entries, or null to remove them on the calling thread
+     */
+    V read(K key, Executor cleanup) {
+        ExpiryEntry<K, V> entry = backingMap.get(key);
+        if (entry == null) {
+            if (stats != null)
+                stats.recordMiss();
+            return null;
+        }
+
+        V value = values == null ? entry.value() : values.read(entry);
+        return live(entry, clock.now(), cleanup) ? value : null;
+    }
+
+    /**
+     * Get the values of each of the keys, reading the clock once for the
+     * batch. Values are read first and their deadlines checked after, so as
+     * with get each value returned was still live when the clock was read.
+     *
+     * @return the keys present in the map, with their values
+     */
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        List<ExpiryEntry<K, V>> entries = new ArrayList<>(keys.size());
+        List<V> read = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            ExpiryEntry<K, V> entry = backingMap.get(key);
+            if (entry != null) {
+                entries.add(entry);
+                read.add(values == null ? entry.value() : values.read(entry));
+            } else if (stats != null) {
+                stats.recordMiss();
+            }
+        }
+
+        long now = clock.now();
+        Map<K, V> found = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            ExpiryEntry<K, V> entry = entries.get(i);
+            if (live(entry, now, null))
+                found.put(entry.key(), read.get(i));
+        }
+        return found;
+    }
+
+    /**
+     * Records the read of an entry. If the entry has expired it is removed
+     * there and then, or on the cleanup executor if there is one.
+     *
+     * @return true if the entry hasn't expired at the time
+     */
+    private boolean live(ExpiryEntry<K, V> entry, long now, Executor cleanup) {
+        if (entry.expiry() > now) {
+            if (expireAfterAccess)
+                entry.touch(now);
+            if (policy != null)
+                policy.recordAccess(entry);
+            if (stats != null)
+                stats.recordHit();
+            return true;
+        }
+
+        if (stats != null)
+            stats.recordMiss();
+        if (cleanup == null) {
+            removeExpired(entry, now);
+        } else {
+            try {
+                cleanup.execute(() -> removeExpired(entry, now));
+            } catch (RejectedExecutionException e) {
+                //the expiry thread will sweep it
+            }
+        }
+        return false;
+    }
+
+    private void removeExpired(ExpiryEntry<K, V> entry, long now) {
+        //only remove it if a writer hasn't just moved it to a later time
+        if (scheduler.cancelIfExpired(entry, now) && backingMap.remove(entry.key(), entry)) {
+            if (stats != null)
+                stats.recordExpiration(now - entry.expiry());
+            released(entry, RemovalCause.EXPIRED);
+        }
+    }
+
+    /**
+     * Get the key's value, loading it if the key is missing (or has expired).
+     * The loader runs once per key at a time: callers that ask for a key while
+     * it is loading wait for that load, and get its value or its exception.
+     * A null value isn't put in the map.
+     * <p>
+     * If the map refreshes ahead and the entry expires within the window, the
+     * current value is returned and the loader is run on the refresh executor
+     * to replace it.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> loader, long timeoutMs) {
+        validate(timeoutMs);
+        ExpiryEntry<K, V> entry = backingMap.get(key);
+        if (entry != null) {
+            V value = values == null ? entry.value() : values.read(entry);
+            long now = clock.now();
+            if (live(entry, now, null)) {
+                long remaining = entry.expiry() - now;
+                if (refreshExecutor != null && remaining > 0 && remaining <= refreshAheadNanos)
+                    refresh(key, entry, loader, timeoutMs);
+                return value;
+            }
+        } else if (stats != null) {
+            stats.recordMiss();
+        }
+        return load(key, loader, timeoutMs);
+    }
+
+    private V load(K key, Function<? super K, ? extends V> loader, long timeoutMs) {
+        CompletableFuture<V> loaded = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loading.putIfAbsent(key, loaded);
+        if (inFlight != null)
+            return await(inFlight);
+
+        try {
+            //another caller may have finished loading the key since we missed it
+            ExpiryEntry<K, V> entry = backingMap.get(key);
+            V value = entry == null ? null : values == null ? entry.value() : values.read(entry);
+            if (entry == null || entry.expiry() <= clock.now()) {
+                value = loader.apply(key);
+                if (value != null)
+                    put(key, value, timeoutMs);
+            }
+            loaded.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            loaded.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, loaded);
+        }
+    }
+
+    /**
+     * Reload an entry on the refresh executor, unless the key is already loading.
+     * A failed reload leaves the entry to expire as normal.
+     */
+    private void refresh(K key, ExpiryEntry<K, V> entry, Function<? super K, ? extends V> loader, long timeoutMs) {
+        CompletableFuture<V> refreshed = new CompletableFuture<>();
+        if (loading.putIfAbsent(key, refreshed) != null)
+            return;
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    V value = loader.apply(key);
+                    if (value != null)
+                        replace(key, entry, value, timeoutMs);
+                    refreshed.complete(value);
+                } catch (Throwable e) {
+                    refreshed.completeExceptionally(e);
+                } finally {
+                    loading.remove(key, refreshed);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(key, refreshed);
+            refreshed.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Put a refreshed value, unless the entry it refreshes has since left the map.
+     */
+    private void replace(K key, ExpiryEntry<K, V> entry, V value, long timeoutMs) {
+        writeLock.lock();
+        try {
+            if (!closed && backingMap.get(key) == entry)
+                putLocked(key, value, timeoutMs);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        ExpiryEntry<K, V> removed = backingMap.remove(key);
+        if (removed != null && stats != null)
+            stats.recordRemove();
+        cancel(removed, RemovalCause.EXPLICIT);
     }
 
+    /**
+     * Remove each of the keys, cancelling their entries in the scheduler as one batch.
+     */
     @Override
-    public synchronized void remove(K key) {
-        backingMap.remove(key);
+    public void removeAll(Collection<? extends K> keys) {
+        List<ExpiryEntry<K, V>> removed = new ArrayList<>();
+        for (K key : keys) {
+            ExpiryEntry<K, V> entry = backingMap.remove(key);
+            if (entry != null)
+                removed.add(entry);
+        }
+        if (stats != null)
+            stats.recordRemoves(removed.size());
+        scheduler.cancelAll(removed);
+        for (ExpiryEntry<K, V> entry : removed)
+            released(entry, RemovalCause.EXPLICIT);
+    }
+
+    private void cancel(ExpiryEntry<K, V> entry, RemovalCause cause) {
+        if (entry != null) {
+            scheduler.cancel(entry);
+            released(entry, cause);
+        }
+    }
+
+    /**
+     * The expiry thread has removed an entry whose deadline passed.
+     */
+    private void expired(ExpiryEntry<K, V> entry) {
+        if (stats != null)
+            stats.recordExpiration(clock.now() - entry.expiry());
+        released(entry, RemovalCause.EXPIRED);
+    }
+
+    /**
+     * An entry has left the map, so tell the removal listener, stop tracking it for capacity and free its
+     * value's storage.
+     */
+    private void released(ExpiryEntry<K, V> entry, RemovalCause cause) {
+        if (removals != null)
+            removals.removed(entry.key(), values == null ? entry.value() : values.read(entry), cause);
+        free(entry);
+    }
+
+    private void free(ExpiryEntry<K, V> entry) {
+        if (policy != null)
+            policy.remove(entry);
+        if (values != null)
+            values.release(entry);
+    }
+
+    /**
+     * The map's live entries, each with the time it had left when read, for
+     * scans such as reconciling the map against its source. Weakly
+     * consistent, as ConcurrentHashMap's iterators are: the scan takes no
+     * lock, so writers and the expiry thread carry on throughout, and entries
+     * written during it may or may not be seen. Entries that have expired are
+     * skipped, though not removed. Scans aren't reads: they don't count as
+     * hits, restart an entry's timeout or count towards its eviction.
+     * <p>
+     * The stream splits by ranges of the backing table, so entries().parallel()
+     * spreads a scan of a large map across the common pool.
+     */
+    public Stream<LiveEntry<K, V>> entries() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * The live entries, as for entries().
+     */
+    public Spliterator<LiveEntry<K, V>> spliterator() {
+        return new LiveEntries(backingMap.values().spliterator());
+    }
+
+    /**
+     * Pass each live key and value to the action, as for entries().
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        spliterator().forEachRemaining(entry -> action.accept(entry.getKey(), entry.getValue()));
+    }
+
+    /**
+     * @return the entry as it stands, or null if it has expired or been released since it was found
+     */
+    private LiveEntry<K, V> liveEntry(ExpiryEntry<K, V> entry) {
+        V value = values == null ? entry.value() : values.read(entry);
+        long now = clock.now();
+        long expiry = entry.expiry();
+        if (expiry <= now || values != null && value == null)
+            return null;
+        return new LiveEntry<>(entry.key(), value, expiry - now);
+    }
+
+    /**
+     * Write the map's live entries to the file, each with the time it has
+     * left, replacing the file once the snapshot is complete. Takes no lock,
+     * so the map carries on serving reads and writes; entries written during
+     * the snapshot may or may not be in it.
+     *
+     * @return the number of entries written
+     */
+    public long snapshot(Path file, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        try (SnapshotFile.Writer<K, V> writer = new SnapshotFile.Writer<>(file, keySerializer, valueSerializer)) {
+            for (ExpiryEntry<K, V> entry : backingMap.values()) {
+                LiveEntry<K, V> live = liveEntry(entry);
+                if (live != null)
+                    writer.write(live.getKey(), live.getValue(), live.remainingNanos(), entry.timeout());
+            }
+            return writer.commit();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Load a snapshot into the map, skipping entries whose time ran out
+     * since it was taken, and keys already in the map, as those are newer.
+     * <p>
+     * The file is streamed in, and each entry can be read as soon as it is
+     * loaded, so the map serves reads and writes throughout. Loaded entries
+     * are only scheduled once the whole file is in, as one batch, so the
+     * schedule is built in a single O(n) pass rather than by n inserts.
+     * <p>
+     * Closing the map stops a restore in progress, which then throws
+     * IllegalStateException, as put does on a closed map.
+     *
+     * @return the number of entries loaded
+     */
+    public long restore(Path file, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        if (closed)
+            throw new IllegalStateException("Map is closed");
+        List<ExpiryEntry<K, V>> loaded = new ArrayList<>();
+        try {
+            SnapshotFile.read(file, keySerializer, valueSerializer, (key, value, remaining, timeout) -> {
+                if (remaining <= 0)
+                    return;
+                ExpiryEntry<K, V> entry;
+                writeLock.lock();
+                try {
+                    //as with put, so nothing is added, or allocated in the store, once close() has cleared the map
+                    if (closed)
+                        throw new IllegalStateException("Map is closed");
+                    if (backingMap.containsKey(key))
+                        return; //written by a caller, which takes the lock to add one
+                    entry = add(key, value, deadlineNanos(clock.now(), remaining), timeout);
+                    backingMap.put(key, entry);
+                } finally {
+                    writeLock.unlock();
+                }
+                loaded.add(entry);
+                if (policy != null && loaded.size() % RESTORE_BATCH_SIZE == 0) {
+                    writeLock.lock();
+                    try {
+                        evictToCapacity();
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        //put, remove and eviction may have replaced loaded entries, which they couldn't cancel as they weren't scheduled
+        writeLock.lock();
+        try {
+            if (closed)
+                throw new IllegalStateException("Map is closed");
+            List<ExpiryEntry<K, V>> live = new ArrayList<>(loaded.size());
+            for (ExpiryEntry<K, V> entry : loaded)
+                if (backingMap.get(entry.key()) == entry)
+                    live.add(entry);
+            if (scheduler.scheduleAll(live))
+                wakeEviction(scheduler.nextExpiry());
+            evictToCapacity();
+            return live.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * restore() on the executor.
+     *
+     * @return completes with the number of entries loaded
+     */
+    public CompletableFuture<Long> restoreAsync(Path file, Serializer<K> keySerializer, Serializer<V> valueSerializer, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> restore(file, keySerializer, valueSerializer), executor);
     }
 
     public int size() {
         return backingMap.size();
     }
+
+    /**
+     * @return the number of entries removed by the most recent expiry sweep
+     */
+    public int lastSweepSize() {
+        return expiryService.lastSweepSize();
+    }
+
+    /**
+     * @return how long the oldest entry due for expiry was overdue after the most recent sweep, in nanoseconds,
+     * if the map was built with Builder.adaptiveExpiry(), else 0
+     */
+    public long expiryLagNanos() {
+        return expiryService.lagNanos();
+    }
+
+    /**
+     * @return the map's stats
+     * @throws IllegalStateException if the map wasn't built with Builder.recordStats()
+     */
+    public MapStats stats() {
+        if (stats == null)
+            throw new IllegalStateException("Stats aren't recorded; build the map with recordStats()");
+        return stats;
+    }
+
+    /**
+     * Stop expiring this map and release its entries. The map's own expiry
+     * thread is stopped; a shared executor is left running for its other maps.
+     */
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            registration.cancel();
+            if (ownsExecutor)
+                executor.close();
+            backingMap.clear();
+            while (scheduler.pollExpired(Long.MAX_VALUE) != null) ;
+            if (values != null)
+                values.close();
+            if (statsName != null)
+                MapStats.unregister(statsName);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Spliterator over the backing map's entries, passing on the live ones.
+     */
+    private class LiveEntries implements Spliterator<LiveEntry<K, V>> {
+        private final Spliterator<ExpiryEntry<K, V>> entries;
+        private LiveEntry<K, V> next;
+
+        LiveEntries(Spliterator<ExpiryEntry<K, V>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super LiveEntry<K, V>> action) {
+            while (entries.tryAdvance(entry -> next = liveEntry(entry))) {
+                if (next != null) {
+                    LiveEntry<K, V> entry = next;
+                    next = null;
+                    action.accept(entry);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super LiveEntry<K, V>> action) {
+            entries.forEachRemaining(entry -> {
+                LiveEntry<K, V> live = liveEntry(entry);
+                if (live != null)
+                    action.accept(live);
+            });
+        }
+
+        @Override
+        public Spliterator<LiveEntry<K, V>> trySplit() {
+            Spliterator<ExpiryEntry<K, V>> split = entries.trySplit();
+            return split == null ? null : new LiveEntries(split);
+        }
+
+        @Override
+        public long estimateSize() {
+            return entries.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return CONCURRENT | NONNULL;
+        }
+    }
+
+    public static class Builder<K, V> {
+        private Clock clock = System::nanoTime;
+        private WaitService waitService = new ParkingWaitService();
+        private ExpiryScheduler<K, V> scheduler;
+        private ExpiryExecutor executor;
+        private int sweepBatchSize = ExpiryService.DEFAULT_BATCH_SIZE;
+        private long sweepIntervalNanos;
+        private EvictionPolicy<K, V> policy;
+        private Weigher<K, V> weigher = (key, value) -> 1;
+        private ValueStore<K, V> values;
+        private boolean recordStats;
+        private String statsName;
+        private long refreshAheadNanos;
+        private Executor refreshExecutor;
+        private RemovalListener<? super K, ? super V> removalListener;
+        private Executor removalExecutor;
+        private boolean expireAfterAccess;
+        private long lagThresholdNanos = Long.MAX_VALUE;
+        private int depthThreshold = Integer.MAX_VALUE;
+        private Backpressure backpressure = Backpressure.NONE;
+        private boolean compactEntries;
+
+        public Builder<K, V> clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * The WaitService for the map's own expiry thread. Not used with a shared executor.
+         */
+        public Builder<K, V> waitService(WaitService waitService) {
+            this.waitService = waitService;
+            return this;
+        }
+
+        public Builder<K, V> scheduler(ExpiryScheduler<K, V> scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Expire on a shared executor rather than a thread of the map's own.
+         */
+        public Builder<K, V> executor(ExpiryExecutor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * The most entries a single expiry sweep removes before giving other maps on the same thread a turn.
+         */
+        public Builder<K, V> sweepBatchSize(int sweepBatchSize) {
+            if (sweepBatchSize < 1)
+                throw new IllegalArgumentException("Sweep batch size must be at least one");
+            this.sweepBatchSize = sweepBatchSize;
+            return this;
+        }
+
+        /**
+         * The least time between expiry sweeps. By default the expiry thread sweeps as each deadline passes.
+         * Reads never see expired values either way, so a longer interval only means expired entries that
+         * aren't read hold their memory for longer, in return for fewer wakeups.
+         */
+        public Builder<K, V> sweepInterval(long interval, TimeUnit unit) {
+            if (interval < 0)
+                throw new IllegalArgumentException("Sweep interval must be a positive value");
+            this.sweepIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Bound the map, e.g. new LruPolicy<>(10000) for at most 10,000 entries. Unbounded by default.
+         */
+        public Builder<K, V> evictionPolicy(EvictionPolicy<K, V> policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * Weigh entries, so the eviction policy's maximum is a total weight rather than an entry count.
+         */
+        public Builder<K, V> weigher(Weigher<K, V> weigher) {
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * Hold values in the store rather than in the map's entries, e.g. new OffHeapValueStore<>(serializer).
+         */
+        public Builder<K, V> valueStore(ValueStore<K, V> values) {
+            this.values = values;
+            return this;
+        }
+
+        /**
+         * Record MapStats, read through ExpiringMap.stats(). Off by default, when the map records nothing.
+         */
+        public Builder<K, V> recordStats() {
+            this.recordStats = true;
+            return this;
+        }
+
+        /**
+         * Record MapStats and register them over JMX under the name, until the map is closed.
+         */
+        public Builder<K, V> recordStats(String jmxName) {
+            this.recordStats = true;
+            this.statsName = jmxName;
+            return this;
+        }
+
+        /**
+         * Have computeIfAbsent reload entries it reads within the window before they expire, on the common
+         * fork join pool. Off by default.
+         */
+        public Builder<K, V> refreshAhead(long window, TimeUnit unit) {
+            return refreshAhead(window, unit, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Have computeIfAbsent reload entries it reads within the window before they expire, on the executor.
+         */
+        public Builder<K, V> refreshAhead(long window, TimeUnit unit, Executor executor) {
+            if (window < 0)
+                throw new IllegalArgumentException("Refresh window must be a positive value");
+            this.refreshAheadNanos = unit.toNanos(window);
+            this.refreshExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Tell the listener of every entry that expires, is replaced, removed or evicted, on the common fork join
+         * pool. Entries released by close() aren't reported.
+         */
+        public Builder<K, V> removalListener(RemovalListener<? super K, ? super V> listener) {
+            return removalListener(listener, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Tell the listener of every entry that expires, is replaced, removed or evicted, in batches on the executor.
+         */
+        public Builder<K, V> removalListener(RemovalListener<? super K, ? super V> listener, Executor executor) {
+            this.removalListener = listener;
+            this.removalExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Have each read of an entry restart its timeout, so entries expire once they haven't been read for that
+         * long (to within 1/64th of it) rather than that long after they were written. Reads just move the entry's
+         * deadline; the schedule catches up when the entry's original deadline comes round.
+         */
+        public Builder<K, V> expireAfterAccess() {
+            this.expireAfterAccess = true;
+            return this;
+        }
+
+        /**
+         * Have the expiry thread measure its lag, how long the oldest entry due has been overdue. Past the
+         * threshold it sweeps in growing batches, ignoring any sweep interval, until it has caught up.
+         */
+        public Builder<K, V> adaptiveExpiry(long lagThreshold, TimeUnit unit) {
+            return adaptiveExpiry(lagThreshold, unit, Integer.MAX_VALUE, Backpressure.NONE);
+        }
+
+        /**
+         * As adaptiveExpiry(lagThreshold, unit), and also push back on writers, as the Backpressure says, while
+         * the lag is past its threshold or the map holds more than depthThreshold entries.
+         */
+        public Builder<K, V> adaptiveExpiry(long lagThreshold, TimeUnit unit, int depthThreshold, Backpressure backpressure) {
+            if (lagThreshold < 0)
+                throw new IllegalArgumentException("Lag threshold must be a positive value");
+            if (depthThreshold < 0)
+                throw new IllegalArgumentException("Depth threshold must be a positive value");
+            this.lagThresholdNanos = unit.toNanos(lagThreshold);
+            this.depthThreshold = depthThreshold;
+            this.backpressure = backpressure;
+            return this;
+        }
+
+        /**
+         * Index entries in an EntryTable, whose nodes are the entries themselves, rather than a ConcurrentHashMap,
+         * saving its node of around 32 bytes per entry. Removes then take a lock, which they otherwise don't, and
+         * the table doesn't turn long chains into trees as ConcurrentHashMap does, so keys need reasonable hash
+         * codes. Can't be combined with a valueStore, whose entries are of its own making.
+         */
+        public Builder<K, V> compactEntries() {
+            this.compactEntries = true;
+            return this;
+        }
+
+        public ExpiringMap<K, V> build() {
+            if (compactEntries && values != null)
+                throw new IllegalArgumentException("Compact entries can't be combined with a value store");
+            return new ExpiringMap<>(this);
+        }
+    }
 }
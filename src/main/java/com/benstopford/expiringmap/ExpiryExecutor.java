@@ -0,0 +1,138 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.ParkingWaitService;
+import com.benstopford.expiringmap.util.WaitService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed set of expiry threads that any number of maps can share.
+ * <p>
+ * Each map registered is given to the least loaded thread. A thread expires
+ * each of its maps in turn and then waits until whichever is due next, or
+ * until one of them is written with something more imminent.
+ * <p>
+ * By default each ExpiringMap gets an executor of its own with a single
+ * thread. Pass one in to share it, e.g. one or two threads across hundreds
+ * of maps. Closing a map unregisters it; closing the executor stops its
+ * threads.
+ * <p>
+ * A map whose expiry throws, e.g. from a removal callback, doesn't take the
+ * thread down with it: the failure is counted, the thread moves on to its
+ * other maps, and the failed one is tried again a millisecond later.
+ */
+public class ExpiryExecutor implements AutoCloseable {
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final long RETRY_NANOS = 1_000_000;
+    private final List<Worker> workers = new ArrayList<>();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile boolean closed;
+
+    public ExpiryExecutor(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("An executor needs at least one thread");
+        for (int i = 0; i < threads; i++)
+            workers.add(new Worker(new ParkingWaitService()));
+    }
+
+    public ExpiryExecutor(WaitService waitService) {
+        workers.add(new Worker(waitService));
+    }
+
+    Registration register(Task task) {
+        if (closed)
+            throw new IllegalStateException("Executor is closed");
+
+        Worker worker = workers.get(0);
+        for (Worker candidate : workers)
+            if (candidate.tasks.size() < worker.tasks.size())
+                worker = candidate;
+
+        Registration registration = new Registration(task, worker);
+        worker.tasks.add(registration);
+        worker.waitService.doNotify();
+        return registration;
+    }
+
+    /**
+     * @return the number of times a map's expiry has thrown
+     */
+    public long failures() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Worker worker : workers)
+            worker.thread.interrupt();
+    }
+
+    /**
+     * The work a map does on each pass of its expiry thread.
+     */
+    interface Task {
+        /**
+         * @return nanoseconds until the task next needs running, or Long.MAX_VALUE if it has nothing scheduled
+         */
+        long expire();
+    }
+
+    static class Registration {
+        private final Task task;
+        private final Worker worker;
+
+        private Registration(Task task, Worker worker) {
+            this.task = task;
+            this.worker = worker;
+        }
+
+        /**
+         * Have the expiry thread look at this task again, as it may now be due sooner.
+         */
+        void wake() {
+            worker.waitService.doNotify();
+        }
+
+        void cancel() {
+            worker.tasks.remove(this);
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final List<Registration> tasks = new CopyOnWriteArrayList<>();
+        private final WaitService waitService;
+        private final Thread thread;
+
+        Worker(WaitService waitService) {
+            this.waitService = waitService;
+            this.thread = new Thread(this, "expiry-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                long waitTime = Long.MAX_VALUE;
+                for (Registration registration : tasks) {
+                    try {
+                        waitTime = Math.min(waitTime, registration.task.expire());
+                    } catch (RuntimeException | Error e) {
+                        failures.incrementAndGet();
+                        waitTime = Math.min(waitTime, RETRY_NANOS);
+                    }
+                }
+                try {
+                    ExpiryService.waitFor(waitTime, waitService);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
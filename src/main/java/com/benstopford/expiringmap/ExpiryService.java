@@ -2,42 +2,238 @@ package com.benstopford.expiringmap;
 
 import com.benstopford.expiringmap.util.Clock;
 import com.benstopford.expiringmap.util.ExpiryEntry;
+import com.benstopford.expiringmap.util.ExpiryScheduler;
 import com.benstopford.expiringmap.util.WaitService;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
 
 /**
  * Class responsible for the expiry logic.
+ * <p>
+ * Expiry runs in sweeps. Each reads the clock once, drains everything due
+ * at that time from the scheduler in one go, up to a batch size, and then
+ * removes those entries from the map. Expiring never blocks, so a single
+ * thread can sweep many maps in turn and then wait for whichever of them
+ * is due next.
+ * <p>
+ * An entry whose expiry has moved later since it was scheduled, as reads
+ * do in a map that expires after access, is scheduled again rather than
+ * removed. So reads never have to reorder the schedule.
+ * <p>
+ * Reads check deadlines themselves, so sweeps only reclaim memory. They can
+ * be spaced out with a sweep interval, trading a little memory held by
+ * expired entries for fewer wakeups.
+ * <p>
+ * Given a lag threshold, sweeps are adaptive. After each, the service
+ * measures the lag, how long the oldest entry still due has been overdue.
+ * While that is past the threshold the service is behind: each sweep takes
+ * a batch twice the size of the last, up to 64 times the configured size,
+ * and the sweep interval is ignored, until it has caught up. Writers can
+ * also sweep a batch themselves with assist(), so that while the map pushes
+ * back on them they add sweepers rather than entries.
  *
  * @param <K>
+ * @param <V>
  */
-public class ExpiryService<K> {
+public class ExpiryService<K, V> {
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    static final int MAX_BATCH_GROWTH = 64;
+    static final int ASSIST_BATCH_SIZE = 64;
 
-    public void attemptExpiry(Clock clock, WaitService waitService, BlockingQueue<ExpiryEntry<K>> queue, Map<K, ?> backingMap) throws InterruptedException {
-        ExpiryEntry head = queue.take();
+    private final int batchSize;
+    private final long sweepIntervalNanos;
+    private final long lagThresholdNanos;
+    private final Consumer<ExpiryEntry<K, V>> onRemoved;
+    private final List<ExpiryEntry<K, V>> batch = new ArrayList<>();
+    private volatile int lastSweepSize;
+    private volatile long lagNanos;
+    private volatile boolean behind;
+    private volatile long wakeAt = Long.MIN_VALUE;
+    private long nextSweep = Long.MIN_VALUE;
+    private int sweepSize;
 
-        if (head.expiry() <= clock.now()) {
-            backingMap.remove(head.key());
-        } else {
-            waitForItToExpire(clock, waitService, queue, head);
+    public ExpiryService() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    public ExpiryService(int batchSize) {
+        this(batchSize, 0);
+    }
+
+    public ExpiryService(int batchSize, long sweepIntervalNanos) {
+        this(batchSize, sweepIntervalNanos, entry -> {
+        });
+    }
+
+    /**
+     * @param onRemoved told of each entry a sweep removes from the map
+     */
+    public ExpiryService(int batchSize, long sweepIntervalNanos, Consumer<ExpiryEntry<K, V>> onRemoved) {
+        this(batchSize, sweepIntervalNanos, Long.MAX_VALUE, onRemoved);
+    }
+
+    /**
+     * @param lagThresholdNanos the lag past which sweeps grow until they catch up, or Long.MAX_VALUE to never adapt
+     * @param onRemoved         told of each entry a sweep removes from the map
+     */
+    public ExpiryService(int batchSize, long sweepIntervalNanos, long lagThresholdNanos, Consumer<ExpiryEntry<K, V>> onRemoved) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least one");
+        if (sweepIntervalNanos < 0)
+            throw new IllegalArgumentException("Sweep interval must be a positive value");
+        if (lagThresholdNanos < 0)
+            throw new IllegalArgumentException("Lag threshold must be a positive value");
+        this.batchSize = batchSize;
+        this.sweepIntervalNanos = sweepIntervalNanos;
+        this.lagThresholdNanos = lagThresholdNanos;
+        this.onRemoved = onRemoved;
+        this.sweepSize = batchSize;
+    }
+
+    /**
+     * Sweep the entries that are due.
+     *
+     * @return nanoseconds until the next entry is due (or the sweep interval, if longer), 0 if the batch
+     * filled and more may be due, or Long.MAX_VALUE if nothing is scheduled
+     */
+    public long expire(Clock clock, ExpiryScheduler<K, V> scheduler, Map<K, ExpiryEntry<K, V>> backingMap) {
+        long now = clock.now();
+        if (now < nextSweep && !behind) {
+            wakeAt = nextSweep;
+            return nextSweep - now;
+        }
+        nextSweep = now + sweepIntervalNanos;
+
+        int size = sweepSize;
+        int drained = scheduler.drainExpired(now, size, batch);
+        lastSweepSize = remove(now, batch, scheduler, backingMap);
+        batch.clear();
+        measureLag(now, scheduler);
+        sweepSize = behind ? (int) Math.min((long) batchSize * MAX_BATCH_GROWTH, size * 2L) : batchSize;
+
+        if (drained == size || behind) {
+            nextSweep = now; //more may be due, so carry straight on
+            return 0;
         }
+        wakeAt = Long.MAX_VALUE; //before reading the schedule, so a writer scheduling meanwhile wakes us
+        long waitTime = Math.max(sweepIntervalNanos, timeToNextExpiry(now, scheduler));
+        wakeAt = waitTime == Long.MAX_VALUE || now + waitTime < now ? Long.MAX_VALUE : now + waitTime;
+        return waitTime;
+    }
+
+    /**
+     * Sweep the entries that are due, then wait until the next is due or a
+     * writer notifies the wait service.
+     *
+     * @deprecated maps now expire on an ExpiryExecutor, which calls expire()
+     * and waits itself, so one thread can sweep many maps. Kept so existing
+     * callers compile.
+     */
+    @Deprecated
+    public void attemptExpiry(Clock clock, WaitService waitService, ExpiryScheduler<K, V> scheduler, Map<K, ExpiryEntry<K, V>> backingMap) throws InterruptedException {
+        waitFor(expire(clock, scheduler, backingMap), waitService);
+    }
+
+    /**
+     * Sweep a small batch on the calling thread, alongside the expiry thread.
+     *
+     * @return the number of entries removed
+     */
+    public int assist(Clock clock, ExpiryScheduler<K, V> scheduler, Map<K, ExpiryEntry<K, V>> backingMap) {
+        long now = clock.now();
+        List<ExpiryEntry<K, V>> expired = new ArrayList<>(ASSIST_BATCH_SIZE);
+        scheduler.drainExpired(now, ASSIST_BATCH_SIZE, expired);
+        int removed = remove(now, expired, scheduler, backingMap);
+        measureLag(now, scheduler);
+        return removed;
     }
 
-    private void waitForItToExpire(Clock clock, WaitService waitService, BlockingQueue<ExpiryEntry<K>> queue, ExpiryEntry head) throws InterruptedException {
-        long waitTime = head.expiry() - clock.now();
-        queue.offer(head);
-        synchronized (WaitService.class) {
-            if (waitTime > 0 && queue.peek().key().equals(head.key())) //ensure head has not been replaced
-                waitService.doWait(ms(waitTime), ns(waitTime));
+    private int remove(long now, List<ExpiryEntry<K, V>> expired, ExpiryScheduler<K, V> scheduler, Map<K, ExpiryEntry<K, V>> backingMap) {
+        int removed = 0;
+        for (ExpiryEntry<K, V> entry : expired) {
+            if (entry.expiry() > now && backingMap.get(entry.key()) == entry) {
+                scheduler.schedule(entry); //read since it was scheduled, so pushed later, in a map that expires after access
+                continue;
+            }
+            if (backingMap.remove(entry.key(), entry)) { //a no-op if the key has since been overwritten
+                onRemoved.accept(entry);
+                removed++;
+            }
         }
+        return removed;
+    }
+
+    private void measureLag(long now, ExpiryScheduler<K, V> scheduler) {
+        if (lagThresholdNanos == Long.MAX_VALUE)
+            return;
+        long next = scheduler.nextExpiry();
+        long lag = next != Long.MAX_VALUE && next < now ? now - next : 0;
+        lagNanos = lag;
+        behind = lag > lagThresholdNanos;
+    }
+
+    /**
+     * @return the number of entries removed by the most recent sweep
+     */
+    public int lastSweepSize() {
+        return lastSweepSize;
+    }
+
+    /**
+     * @return how long the oldest entry still due was overdue after the most recent sweep, if sweeps are adaptive
+     */
+    public long lagNanos() {
+        return lagNanos;
+    }
+
+    /**
+     * @return true if the lag was past the threshold after the most recent sweep
+     */
+    public boolean behind() {
+        return behind;
+    }
+
+    /**
+     * @return true if sweeps follow each deadline, so the expiry thread should be woken when one moves forward
+     */
+    public boolean sweepsOnDeadline() {
+        return sweepIntervalNanos == 0;
+    }
+
+    /**
+     * @return true if the expiry thread should be woken for a new earliest deadline: either sweeps follow each
+     * deadline, or the thread means to sleep past it, e.g. until a later deadline or, with nothing scheduled,
+     * until told of something
+     */
+    public boolean shouldWakeFor(long deadline) {
+        return sweepsOnDeadline() || deadline < wakeAt;
+    }
+
+    private long timeToNextExpiry(long now, ExpiryScheduler<K, V> scheduler) {
+        long next = scheduler.nextExpiry();
+        if (next == Long.MAX_VALUE)
+            return Long.MAX_VALUE;
+        if (next <= now)
+            return 0;
+        long waitTime = next - now;
+        return waitTime > 0 ? waitTime : Long.MAX_VALUE; //guard against overflow across the clock's range
+    }
+
+    public static void waitFor(long waitTime, WaitService waitService) throws InterruptedException {
+        if (waitTime == Long.MAX_VALUE)
+            waitService.doWait(0, 0); //nothing scheduled, wait to be notified
+        else if (waitTime > 0)
+            waitService.doWait(ms(waitTime), ns(waitTime));
     }
 
-    private int ns(long waitTime) {
+    private static int ns(long waitTime) {
         return (int) Math.floor(waitTime % 1000000);
     }
 
-    private long ms(long waitTime) {
+    private static long ms(long waitTime) {
         return (long) Math.floor(waitTime / 1000000);
     }
 }
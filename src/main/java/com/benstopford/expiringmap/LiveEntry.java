@@ -0,0 +1,69 @@
+package com.benstopford.expiringmap;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A key and value found live in a map by a scan, with the time it had
+ * left when it was read. Equal, as a Map.Entry, to any entry with the same
+ * key and value. Immutable: setValue() throws.
+ *
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+public final class LiveEntry<K, V> implements Map.Entry<K, V> {
+    private final K key;
+    private final V value;
+    private final long remainingNanos;
+
+    LiveEntry(K key, V value, long remainingNanos) {
+        this.key = key;
+        this.value = value;
+        this.remainingNanos = remainingNanos;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        return value;
+    }
+
+    @Override
+    public V setValue(V value) {
+        throw new UnsupportedOperationException("Entries of a scan are read only; put the key instead");
+    }
+
+    /**
+     * @return the time the entry had left when it was read, at most Long.MAX_VALUE nanoseconds
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(remainingNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long remainingNanos() {
+        return remainingNanos;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Map.Entry))
+            return false;
+        Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+        return Objects.equals(key, other.getKey()) && Objects.equals(value, other.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(key) ^ Objects.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value + " (" + TimeUnit.NANOSECONDS.toMillis(remainingNanos) + "ms left)";
+    }
+}
@@ -0,0 +1,346 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.Clock;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * ExpiringMap specialised for primitive long keys, so keys are never
+ * boxed and entries are never objects. It has the same put, get and
+ * remove as ExpireMap, taking long keys. (It doesn't implement
+ * ExpireMap&lt;Long, V&gt; itself, as the boxed and primitive overloads
+ * would be ambiguous to call for a LongExpiringMap&lt;Long&gt;.)
+ * <p>
+ * Keys, values and deadlines sit in parallel arrays forming an open
+ * addressing hash table with linear probing. Deadlines are ordered by a
+ * binary heap of slot numbers, and each slot records its place in the
+ * heap, so expiry bookkeeping is a few ints per entry rather than an
+ * entry object. Removal shifts later entries of a probe run back rather
+ * than leaving tombstones, so the table never fills with dead slots.
+ * <p>
+ * Writes and expiry sweeps take a lock. Reads are optimistic: they probe
+ * without it and only retry, holding it as readers, if a write got in the
+ * way. As with ExpiringMap, reads check deadlines themselves, so never
+ * return an expired value.
+ *
+ * @param <V> the type of mapped values
+ */
+public class LongExpiringMap<V> implements AutoCloseable {
+    private static final Object NULL = new Object(); //stands in for a null value, as null marks an empty slot
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final StampedLock lock = new StampedLock();
+    private final Clock clock;
+    private final ExpiryExecutor executor;
+    private final boolean ownsExecutor;
+    private final ExpiryExecutor.Registration registration;
+    private final int sweepBatchSize = ExpiryService.DEFAULT_BATCH_SIZE;
+
+    private long[] keys;
+    private Object[] values;
+    private long[] deadlines;
+    private int[] heapIndex;
+    private int[] heap;
+    private volatile int size;
+    private volatile boolean closed;
+
+    public LongExpiringMap() {
+        this(System::nanoTime);
+    }
+
+    public LongExpiringMap(Clock clock) {
+        this(clock, null);
+    }
+
+    /**
+     * @param executor the executor to expire on, or null for a thread of the map's own
+     */
+    public LongExpiringMap(Clock clock, ExpiryExecutor executor) {
+        this.clock = clock;
+        this.ownsExecutor = executor == null;
+        this.executor = ownsExecutor ? new ExpiryExecutor(1) : executor;
+        allocate(INITIAL_CAPACITY);
+        this.registration = this.executor.register(this::expire);
+    }
+
+    public void put(long key, V value, long timeoutMs) {
+        if (timeoutMs < 0)
+            throw new IllegalArgumentException("Timeout must be a positive value");
+
+        long deadline = ExpiringMap.deadline(clock.now(), timeoutMs);
+        boolean wake;
+        long stamp = lock.writeLock();
+        try {
+            //under the lock, so nothing is added once close() has reset the table
+            if (closed)
+                throw new IllegalStateException("Map is closed");
+            int slot = find(key);
+            if (slot >= 0) {
+                long previous = deadlines[slot];
+                values[slot] = value == null ? NULL : value;
+                deadlines[slot] = deadline;
+                siftDown(heapIndex[slot]);
+                siftUp(heapIndex[slot]);
+                wake = deadline < previous && heap[0] == slot;
+            } else {
+                if (size + 1 > threshold())
+                    allocate(keys.length * 2);
+                slot = insert(key, value == null ? NULL : value, deadline);
+                heap[size] = slot;
+                heapIndex[slot] = size;
+                size++;
+                siftUp(size - 1);
+                wake = heap[0] == slot;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (wake)
+            registration.wake();
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Object value;
+        long deadline;
+        long stamp = lock.tryOptimisticRead();
+        try {
+            int slot = find(key);
+            value = slot < 0 ? null : values[slot];
+            deadline = slot < 0 ? 0 : deadlines[slot];
+        } catch (RuntimeException e) {
+            value = null; //raced a resize, so retry below
+            deadline = 0;
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                int slot = find(key);
+                value = slot < 0 ? null : values[slot];
+                deadline = slot < 0 ? 0 : deadlines[slot];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (value == null)
+            return null;
+
+        long now = clock.now();
+        if (deadline > now)
+            return value == NULL ? null : (V) value;
+
+        removeIfExpired(key, now);
+        return null;
+    }
+
+    public void remove(long key) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = find(key);
+            if (slot >= 0)
+                removeSlot(slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots in the hash table
+     */
+    public int capacity() {
+        long stamp = lock.readLock();
+        try {
+            return keys.length;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            registration.cancel();
+            if (ownsExecutor)
+                executor.close();
+            allocate(INITIAL_CAPACITY);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * One expiry sweep, run by the executor.
+     */
+    private long expire() {
+        long now = clock.now();
+        long stamp = lock.writeLock();
+        try {
+            int removed = 0;
+            while (size > 0 && deadlines[heap[0]] <= now && removed < sweepBatchSize) {
+                removeSlot(heap[0]);
+                removed++;
+            }
+            if (removed == sweepBatchSize)
+                return 0;
+            if (size == 0)
+                return Long.MAX_VALUE;
+            long waitTime = deadlines[heap[0]] - now;
+            return waitTime > 0 ? waitTime : Long.MAX_VALUE; //guard against overflow across the clock's range
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void removeIfExpired(long key, long now) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = find(key);
+            if (slot >= 0 && deadlines[slot] <= now)
+                removeSlot(slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the key's slot, or -1 if it isn't in the table
+     */
+    private int find(long key) {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int mask = keys.length - 1;
+        int slot = hash(key, mask);
+        for (int probes = 0; probes <= mask; probes++) {
+            if (values[slot] == null)
+                return -1;
+            if (keys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int insert(long key, Object value, long deadline) {
+        int mask = keys.length - 1;
+        int slot = hash(key, mask);
+        while (values[slot] != null)
+            slot = (slot + 1) & mask;
+        keys[slot] = key;
+        values[slot] = value;
+        deadlines[slot] = deadline;
+        return slot;
+    }
+
+    /**
+     * Empty a slot, then shift back any later entries in the probe run that
+     * could no longer be found past the gap.
+     */
+    private void removeSlot(int slot) {
+        removeFromHeap(heapIndex[slot]);
+        int mask = keys.length - 1;
+        int gap = slot;
+        values[gap] = null;
+        for (int i = (gap + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = hash(keys[i], mask);
+            boolean reachable = gap <= i ? gap < home && home <= i : gap < home || home <= i;
+            if (!reachable) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                deadlines[gap] = deadlines[i];
+                heapIndex[gap] = heapIndex[i];
+                heap[heapIndex[gap]] = gap;
+                values[i] = null;
+                gap = i;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        long[] oldDeadlines = deadlines;
+        int[] oldHeap = heap;
+        int count = size;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        deadlines = new long[capacity];
+        heapIndex = new int[capacity];
+        heap = new int[capacity];
+        size = 0;
+        if (oldKeys == null || closed)
+            return;
+
+        //reinsert in heap order, so the heap stays valid as it is rebuilt
+        for (int i = 0; i < count; i++) {
+            int old = oldHeap[i];
+            int slot = insert(oldKeys[old], oldValues[old], oldDeadlines[old]);
+            heap[i] = slot;
+            heapIndex[slot] = i;
+        }
+        size = count;
+    }
+
+    private int threshold() {
+        return keys.length / 4 * 3;
+    }
+
+    private void removeFromHeap(int i) {
+        int last = --size;
+        if (i != last) {
+            heap[i] = heap[last];
+            heapIndex[heap[i]] = i;
+            siftDown(i);
+            siftUp(i);
+        }
+    }
+
+    private void siftUp(int i) {
+        int slot = heap[i];
+        long deadline = deadlines[slot];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int parentSlot = heap[parent];
+            if (deadlines[parentSlot] <= deadline)
+                break;
+            heap[i] = parentSlot;
+            heapIndex[parentSlot] = i;
+            i = parent;
+        }
+        heap[i] = slot;
+        heapIndex[slot] = i;
+    }
+
+    private void siftDown(int i) {
+        int slot = heap[i];
+        long deadline = deadlines[slot];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && deadlines[heap[right]] < deadlines[heap[child]])
+                child = right;
+            int childSlot = heap[child];
+            if (deadline <= deadlines[childSlot])
+                break;
+            heap[i] = childSlot;
+            heapIndex[childSlot] = i;
+            i = child;
+        }
+        heap[i] = slot;
+        heapIndex[slot] = i;
+    }
+
+    private static int hash(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
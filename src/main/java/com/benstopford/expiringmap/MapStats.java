@@ -0,0 +1,231 @@
+package com.benstopford.expiringmap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters for an ExpiringMap, recorded when the map is built with
+ * Builder.recordStats(). Maps record nothing otherwise.
+ * <p>
+ * Counters are LongAdders, so threads recording at once update separate
+ * cells rather than contending on one. Expiry lag, how long after its
+ * deadline an entry was actually removed, goes into a histogram with a
+ * bucket per power of two nanoseconds. Size and queue depth are read from
+ * the map when asked for.
+ * <p>
+ * Counts are read without stopping writers, so a set of readings taken
+ * together may be mutually a little out of step.
+ */
+public class MapStats implements MapStatsMXBean {
+    private static final int BUCKETS = Long.SIZE;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder removes = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder[] lag = new LongAdder[BUCKETS];
+    private final LongAccumulator maxLag = new LongAccumulator(Math::max, 0);
+    private final IntSupplier size;
+    private final IntSupplier queueDepth;
+
+    /**
+     * @param size       reads the number of entries in the map
+     * @param queueDepth reads the number of entries in the map's scheduler
+     */
+    public MapStats(IntSupplier size, IntSupplier queueDepth) {
+        this.size = size;
+        this.queueDepth = queueDepth;
+        for (int i = 0; i < BUCKETS; i++)
+            lag[i] = new LongAdder();
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordPut() {
+        puts.increment();
+    }
+
+    void recordPuts(int count) {
+        puts.add(count);
+    }
+
+    void recordRemove() {
+        removes.increment();
+    }
+
+    void recordRemoves(int count) {
+        removes.add(count);
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    /**
+     * @param lagNanos the time between the entry's deadline and its removal
+     */
+    void recordExpiration(long lagNanos) {
+        long lagged = Math.max(0, lagNanos);
+        expirations.increment();
+        lag[bucket(lagged)].increment();
+        maxLag.accumulate(lagged);
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return hits as a fraction of reads, or 1 if there have been none
+     */
+    @Override
+    public double getHitRate() {
+        long hits = getHits();
+        long reads = hits + getMisses();
+        return reads == 0 ? 1.0 : (double) hits / reads;
+    }
+
+    @Override
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    /**
+     * @return removes of keys that were in the map
+     */
+    @Override
+    public long getRemoves() {
+        return removes.sum();
+    }
+
+    /**
+     * @return entries removed because their deadline passed, whether by the expiry thread or a read
+     */
+    @Override
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return entries removed by the eviction policy to keep a bounded map within its maximum
+     */
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public int getSize() {
+        return size.getAsInt();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getExpiryLagMedianNanos() {
+        return expiryLagPercentile(50);
+    }
+
+    @Override
+    public long getExpiryLag99thPercentileNanos() {
+        return expiryLagPercentile(99);
+    }
+
+    @Override
+    public long getExpiryLagMaxNanos() {
+        return maxLag.get();
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the upper bound of the histogram bucket the percentile falls in, or 0 if nothing has expired
+     */
+    public long expiryLagPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be from 0 to 100");
+        long[] counts = expiryLagHistogram();
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * @return expirations by lag. Bucket 0 counts lags of 0ns, and bucket i
+     * lags from 2^(i-1) to 2^i - 1 nanoseconds.
+     */
+    public long[] expiryLagHistogram() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = lag[i].sum();
+        return counts;
+    }
+
+    /**
+     * Register these stats with the platform MBeanServer, as
+     * com.benstopford.expiringmap:type=ExpiringMap,name=&lt;name&gt;.
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = objectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Could not register stats as " + name, e);
+        }
+    }
+
+    public static void unregister(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister " + objectName, e);
+        }
+    }
+
+    static ObjectName objectName(String name) throws JMException {
+        return new ObjectName("com.benstopford.expiringmap:type=ExpiringMap,name=" + ObjectName.quote(name));
+    }
+
+    private static int bucket(long lagNanos) {
+        return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(lagNanos));
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,32 @@
+package com.benstopford.expiringmap;
+
+/**
+ * The JMX view of a map's MapStats. Lags are in nanoseconds, percentiles
+ * rounded up to the next power of two.
+ */
+public interface MapStatsMXBean {
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRate();
+
+    long getPuts();
+
+    long getRemoves();
+
+    long getExpirations();
+
+    long getEvictions();
+
+    int getSize();
+
+    int getQueueDepth();
+
+    long getExpiryLagMedianNanos();
+
+    long getExpiryLag99thPercentileNanos();
+
+    long getExpiryLagMaxNanos();
+}
@@ -0,0 +1,76 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.RemovalCause;
+import com.benstopford.expiringmap.util.RemovalListener;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands removals to a RemovalListener on an executor, so the threads that
+ * remove entries, writers and the expiry thread, only ever queue them.
+ * <p>
+ * Removals are delivered in batches. The first removal queued while no
+ * delivery is pending submits a task, which delivers everything queued by
+ * the time it runs, and whatever arrives while it does, in order. A burst
+ * of removals therefore costs one task. A listener that throws is skipped
+ * for that removal only. The queue is unbounded, so a listener that falls
+ * behind for good holds the removals it hasn't had yet.
+ *
+ * @param <K>
+ * @param <V>
+ */
+class RemovalNotifier<K, V> {
+    private final RemovalListener<? super K, ? super V> listener;
+    private final Executor executor;
+    private final Queue<Removal<K, V>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    RemovalNotifier(RemovalListener<? super K, ? super V> listener, Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    void removed(K key, V value, RemovalCause cause) {
+        queue.add(new Removal<>(key, value, cause));
+        if (scheduled.compareAndSet(false, true))
+            submit();
+    }
+
+    private void submit() {
+        try {
+            executor.execute(this::deliver);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false); //the executor has shut down, so the removals stay queued
+        }
+    }
+
+    private void deliver() {
+        do {
+            Removal<K, V> removal;
+            while ((removal = queue.poll()) != null) {
+                try {
+                    listener.onRemoval(removal.key, removal.value, removal.cause);
+                } catch (RuntimeException e) {
+                    //one failed notification mustn't stop the rest
+                }
+            }
+            scheduled.set(false);
+        } while (!queue.isEmpty() && scheduled.compareAndSet(false, true)); //a removal queued as we finished
+    }
+
+    private static class Removal<K, V> {
+        private final K key;
+        private final V value;
+        private final RemovalCause cause;
+
+        private Removal(K key, V value, RemovalCause cause) {
+            this.key = key;
+            this.value = value;
+            this.cause = cause;
+        }
+    }
+}
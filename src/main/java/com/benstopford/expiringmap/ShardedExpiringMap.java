@@ -0,0 +1,257 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.Clock;
+import com.benstopford.expiringmap.util.ExpiryScheduler;
+import com.benstopford.expiringmap.util.PriorityQueueScheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * ExpireMap that partitions keys by hash across a number of independent
+ * ExpiringMaps, so writes to different shards never contend.
+ * <p>
+ * Each shard has its own backing map, its own scheduler and its own write
+ * lock. A single ExpiringMap serialises all writes on one lock, so this is
+ * the one to use when many threads write at once. Reads and removes are
+ * lock-free either way. Batches (putAll, getAll, removeAll) are split by
+ * shard and each part handed to its shard as a batch. Scans (entries(),
+ * forEach) run across all the shards.
+ * <p>
+ * The shards share one ExpiryExecutor. By default the map creates its own,
+ * with a single thread, and close() stops it. Pass one in to size it, or to
+ * share it further.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class ShardedExpiringMap<K, V> implements ExpireMap<K, V>, AutoCloseable {
+    private final ExpiringMap<K, V>[] shards;
+    private final int mask;
+    private final int shift;
+    private final ExpiryExecutor executor;
+    private final boolean ownsExecutor;
+
+    public ShardedExpiringMap(int shards) {
+        this(shards, System::nanoTime, PriorityQueueScheduler::new, null);
+    }
+
+    /**
+     * @param shards     the number of shards, rounded up to a power of two
+     * @param schedulers creates a scheduler for each shard
+     * @param executor   the executor the shards expire on, or null for one of the map's own
+     */
+    public ShardedExpiringMap(int shards, Clock clock, Supplier<ExpiryScheduler<K, V>> schedulers, ExpiryExecutor executor) {
+        if (shards < 1)
+            throw new IllegalArgumentException("A map needs at least one shard");
+        int count = shards == 1 ? 1 : Integer.highestOneBit(shards - 1) << 1;
+
+        this.ownsExecutor = executor == null;
+        this.executor = ownsExecutor ? new ExpiryExecutor(1) : executor;
+        this.mask = count - 1;
+        this.shift = 32 - Integer.numberOfTrailingZeros(count);
+        this.shards = newShards(count);
+        for (int i = 0; i < count; i++)
+            this.shards[i] = ExpiringMap.<K, V>builder()
+                    .clock(clock)
+                    .scheduler(schedulers.get())
+                    .executor(this.executor)
+                    .build();
+    }
+
+    @Override
+    public void put(K key, V value, long timeoutMs) {
+        shardFor(key).put(key, value, timeoutMs);
+    }
+
+    @Override
+    public V get(K key) {
+        return shardFor(key).get(key);
+    }
+
+    /**
+     * As ExpiringMap.read, on the key's shard.
+     */
+    V read(K key, Executor cleanup) {
+        return shardFor(key).read(key, cleanup);
+    }
+
+    @Override
+    public void remove(K key) {
+        shardFor(key).remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> entries, long timeoutMs) {
+        List<Map<K, V>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++)
+            parts.add(new HashMap<>());
+        for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet())
+            parts.get(shard(entry.getKey())).put(entry.getKey(), entry.getValue());
+        for (int i = 0; i < shards.length; i++)
+            if (!parts.get(i).isEmpty())
+                shards[i].putAll(parts.get(i), timeoutMs);
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        List<List<K>> parts = partition(keys);
+        Map<K, V> found = new HashMap<>();
+        for (int i = 0; i < shards.length; i++)
+            if (!parts.get(i).isEmpty())
+                found.putAll(shards[i].getAll(parts.get(i)));
+        return found;
+    }
+
+    @Override
+    public void removeAll(Collection<? extends K> keys) {
+        List<List<K>> parts = partition(keys);
+        for (int i = 0; i < shards.length; i++)
+            if (!parts.get(i).isEmpty())
+                shards[i].removeAll(parts.get(i));
+    }
+
+    public int size() {
+        int size = 0;
+        for (ExpiringMap<K, V> shard : shards)
+            size += shard.size();
+        return size;
+    }
+
+    /**
+     * The live entries of every shard, as for ExpiringMap.entries(). A
+     * parallel stream splits the shards between threads first, then splits
+     * within each shard.
+     */
+    public Stream<LiveEntry<K, V>> entries() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Spliterator<LiveEntry<K, V>> spliterator() {
+        return new ShardEntries(0, shards.length);
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (ExpiringMap<K, V> shard : shards)
+            shard.forEach(action);
+    }
+
+    public int shards() {
+        return shards.length;
+    }
+
+    /**
+     * Close every shard, and the executor if it belongs to this map.
+     */
+    @Override
+    public void close() {
+        for (ExpiringMap<K, V> shard : shards)
+            shard.close();
+        if (ownsExecutor)
+            executor.close();
+    }
+
+    //generic array creation; only ever holds shards
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> ExpiringMap<K, V>[] newShards(int count) {
+        return new ExpiringMap[count];
+    }
+
+    private ExpiringMap<K, V> shardFor(K key) {
+        return shards[shard(key)];
+    }
+
+    /**
+     * The shard for the key, from the high bits of its scrambled hash. Each
+     * shard's table indexes by the low bits of the same spread hash, so
+     * choosing the shard by them would leave every key in a shard sharing
+     * them, and each table using only 1/shards of its bins.
+     */
+    int shard(K key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) * 0x9E3779B9 >>> shift & mask;
+    }
+
+    private List<List<K>> partition(Collection<? extends K> keys) {
+        List<List<K>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++)
+            parts.add(new ArrayList<>());
+        for (K key : keys)
+            parts.get(shard(key)).add(key);
+        return parts;
+    }
+
+    /**
+     * Scans a range of shards in turn, splitting off half the range while
+     * it has more than one, then splitting the shard it is scanning.
+     */
+    private class ShardEntries implements Spliterator<LiveEntry<K, V>> {
+        private int next;
+        private int end;
+        private Spliterator<LiveEntry<K, V>> current;
+
+        ShardEntries(int next, int end) {
+            this.next = next;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super LiveEntry<K, V>> action) {
+            while (true) {
+                if (current == null) {
+                    if (next >= end)
+                        return false;
+                    current = shards[next++].spliterator();
+                }
+                if (current.tryAdvance(action))
+                    return true;
+                current = null;
+            }
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super LiveEntry<K, V>> action) {
+            if (current != null)
+                current.forEachRemaining(action);
+            current = null;
+            while (next < end)
+                shards[next++].spliterator().forEachRemaining(action);
+        }
+
+        @Override
+        public Spliterator<LiveEntry<K, V>> trySplit() {
+            if (current != null && next < end || end - next > 1) {
+                int mid = current != null ? next : (next + end) >>> 1;
+                ShardEntries split = new ShardEntries(mid, end);
+                end = mid;
+                return split;
+            }
+            if (current == null && next < end)
+                current = shards[next++].spliterator();
+            return current == null ? null : current.trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = current == null ? 0 : current.estimateSize();
+            for (int i = next; i < end; i++)
+                size += shards[i].size();
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            return CONCURRENT | NONNULL;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.Serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The on-disk format of a map snapshot.
+ * <p>
+ * A header (magic, version, the wall clock time the snapshot was taken in
+ * millis and the entry count) is followed by one record per entry: the
+ * nanoseconds it had left to live, its access timeout in nanoseconds (0
+ * unless the map expires after access), then the key's and value's bytes,
+ * each preceded by its length.
+ * <p>
+ * Snapshots are written through a FileChannel from a direct buffer, to a
+ * temporary file that is then moved over the target, so a crash mid-write
+ * leaves the previous snapshot intact. They are read by memory mapping
+ * the file a window at a time.
+ */
+class SnapshotFile {
+    static final int MAGIC = 0x45584d53;
+    static final int VERSION = 1;
+    private static final int HEADER = 4 + 4 + 8 + 8;
+    private static final int RECORD_HEADER = 8 + 8 + 4 + 4;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int WINDOW_SIZE = 64 << 20;
+
+    interface EntryReader<K, V> {
+        void entry(K key, V value, long remainingNanos, long timeoutNanos);
+    }
+
+    static class Writer<K, V> implements AutoCloseable {
+        private final Path file;
+        private final Path temp;
+        private final FileChannel channel;
+        private final Serializer<K> keys;
+        private final Serializer<V> values;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long count;
+        private boolean committed;
+
+        Writer(Path file, Serializer<K> keys, Serializer<V> values) throws IOException {
+            this(file, keys, values, System.currentTimeMillis());
+        }
+
+        /**
+         * @param takenMillis the wall clock time the remaining times are measured from
+         */
+        Writer(Path file, Serializer<K> keys, Serializer<V> values, long takenMillis) throws IOException {
+            this.file = file.toAbsolutePath();
+            this.temp = Files.createTempFile(this.file.getParent(), file.getFileName().toString(), ".tmp");
+            this.channel = FileChannel.open(temp, WRITE, TRUNCATE_EXISTING, CREATE);
+            this.keys = keys;
+            this.values = values;
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(takenMillis).putLong(0);
+        }
+
+        void write(K key, V value, long remainingNanos, long timeoutNanos) throws IOException {
+            byte[] keyBytes = keys.serialize(key);
+            byte[] valueBytes = values.serialize(value);
+            int length = RECORD_HEADER + keyBytes.length + valueBytes.length;
+            if (buffer.remaining() < length) {
+                flush();
+                if (buffer.capacity() < length)
+                    buffer = ByteBuffer.allocateDirect(length);
+            }
+            buffer.putLong(remainingNanos).putLong(timeoutNanos)
+                    .putInt(keyBytes.length).put(keyBytes)
+                    .putInt(valueBytes.length).put(valueBytes);
+            count++;
+        }
+
+        /**
+         * Finish the snapshot and move it into place.
+         *
+         * @return the number of entries written
+         */
+        long commit() throws IOException {
+            flush();
+            ByteBuffer countBytes = ByteBuffer.allocate(8).putLong(0, count);
+            channel.write(countBytes, HEADER - 8);
+            channel.force(true);
+            channel.close();
+            Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            committed = true;
+            return count;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Stream the snapshot's entries to the reader, with the time each has
+     * left less the wall clock time since the snapshot was taken.
+     *
+     * @return the number of entries in the snapshot
+     */
+    static <K, V> long read(Path file, Serializer<K> keys, Serializer<V> values, EntryReader<K, V> reader) throws IOException {
+        return read(file, keys, values, reader, WINDOW_SIZE);
+    }
+
+    static <K, V> long read(Path file, Serializer<K> keys, Serializer<V> values, EntryReader<K, V> reader, int windowSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            Cursor cursor = new Cursor(channel, file, windowSize);
+            cursor.ensure(HEADER);
+            if (cursor.window.getInt() != MAGIC)
+                throw new IOException("Not a snapshot: " + file);
+            int version = cursor.window.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            long elapsedNanos = Math.max(0, System.currentTimeMillis() - cursor.window.getLong()) * 1000000;
+            long count = cursor.window.getLong();
+
+            for (long i = 0; i < count; i++) {
+                cursor.ensure(RECORD_HEADER - 4);
+                long remaining = cursor.window.getLong();
+                long timeout = cursor.window.getLong();
+                byte[] keyBytes = cursor.bytes();
+                byte[] valueBytes = cursor.bytes();
+                reader.entry(keys.deserialize(keyBytes), values.deserialize(valueBytes), remaining - elapsedNanos, timeout);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Reads through a file by mapping a window of it at a time.
+     */
+    private static class Cursor {
+        private final FileChannel channel;
+        private final Path file;
+        private final long size;
+        private final int windowSize;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        Cursor(FileChannel channel, Path file, int windowSize) throws IOException {
+            this.channel = channel;
+            this.file = file;
+            this.size = channel.size();
+            this.windowSize = windowSize;
+            this.window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, windowSize));
+        }
+
+        /**
+         * Make sure the next bytes are in the window, mapping a new window from here if they run past it.
+         */
+        void ensure(long bytes) throws IOException {
+            if (window.remaining() >= bytes)
+                return;
+            long position = windowStart + window.position();
+            if (bytes > size - position)
+                throw new IOException("Snapshot is truncated: " + file);
+            long length = Math.min(size - position, Math.max(windowSize, bytes));
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            windowStart = position;
+        }
+
+        /**
+         * Read a length and that many bytes.
+         */
+        byte[] bytes() throws IOException {
+            ensure(4);
+            int length = window.getInt();
+            if (length < 0)
+                throw new IOException("Snapshot is corrupt: " + file);
+            byte[] bytes = new byte[length];
+            ensure(bytes.length);
+            window.get(bytes);
+            return bytes;
+        }
+    }
+}
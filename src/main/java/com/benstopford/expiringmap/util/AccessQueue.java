@@ -0,0 +1,62 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * Intrusive doubly linked list of entries, newest first, tracking the
+ * total weight it holds.
+ */
+class AccessQueue<K, V> {
+    private final byte id;
+    private ExpiryEntry<K, V> newest;
+    private ExpiryEntry<K, V> oldest;
+    long weight;
+
+    AccessQueue(int id) {
+        this.id = (byte) id;
+    }
+
+    void addNewest(ExpiryEntry<K, V> entry) {
+        entry.queue = id;
+        entry.newer = null;
+        entry.older = newest;
+        if (newest != null)
+            newest.newer = entry;
+        else
+            oldest = entry;
+        newest = entry;
+        weight += entry.weight;
+    }
+
+    void remove(ExpiryEntry<K, V> entry) {
+        if (entry.newer != null)
+            entry.newer.older = entry.older;
+        else
+            newest = entry.older;
+        if (entry.older != null)
+            entry.older.newer = entry.newer;
+        else
+            oldest = entry.newer;
+        entry.newer = null;
+        entry.older = null;
+        entry.queue = 0;
+        weight -= entry.weight;
+    }
+
+    void moveToNewest(ExpiryEntry<K, V> entry) {
+        if (entry != newest) {
+            remove(entry);
+            addNewest(entry);
+        }
+    }
+
+    boolean holds(ExpiryEntry<K, V> entry) {
+        return entry.queue == id;
+    }
+
+    ExpiryEntry<K, V> newest() {
+        return newest;
+    }
+
+    ExpiryEntry<K, V> oldest() {
+        return oldest;
+    }
+}
@@ -0,0 +1,23 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * What a map's writers do while its expiry is behind, or the map holds
+ * more entries than its depth threshold.
+ */
+public enum Backpressure {
+    /**
+     * Nothing; writes go ahead as normal.
+     */
+    NONE,
+    /**
+     * Each write first sweeps a small batch of expired entries itself and,
+     * if the map is still over its depth threshold, pauses briefly. Writers
+     * are slowed in proportion to how far behind expiry is.
+     */
+    SLOW,
+    /**
+     * Writes are rejected, with an IllegalStateException, until expiry has
+     * caught up and the map is back within its depth threshold.
+     */
+    REJECT
+}
@@ -0,0 +1,137 @@
+package com.benstopford.expiringmap.util;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Base for eviction policies that order entries in access queues.
+ * <p>
+ * Writers update the queues under the policy's lock (a ReentrantLock, so
+ * virtual threads waiting on it don't pin their carriers). Reads are only
+ * buffered, and are replayed onto the queues by the next writer, so get
+ * never takes the lock. Every operation is amortised O(1).
+ *
+ * @param <K>
+ * @param <V>
+ */
+public abstract class BoundedPolicy<K, V> implements EvictionPolicy<K, V> {
+    private final long maximum;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReadBuffer<ExpiryEntry<K, V>> reads = new ReadBuffer<>();
+    private final Consumer<ExpiryEntry<K, V>> applyRead = this::applyRead;
+    private long weightedSize;
+
+    protected BoundedPolicy(long maximum) {
+        if (maximum < 0)
+            throw new IllegalArgumentException("Maximum must be a positive value");
+        this.maximum = maximum;
+    }
+
+    @Override
+    public void recordAccess(ExpiryEntry<K, V> entry) {
+        reads.offer(entry);
+    }
+
+    @Override
+    public void add(ExpiryEntry<K, V> entry, int weight) {
+        lock.lock();
+        try {
+            validate(weight);
+            reads.drainTo(applyRead);
+            entry.weight = weight;
+            weightedSize += weight;
+            onAdd(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void update(ExpiryEntry<K, V> entry, int weight) {
+        lock.lock();
+        try {
+            validate(weight);
+            reads.drainTo(applyRead);
+            if (entry.queue == 0)
+                return;
+            queueOf(entry).weight += weight - entry.weight;
+            weightedSize += weight - entry.weight;
+            entry.weight = weight;
+            onAccess(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(ExpiryEntry<K, V> entry) {
+        lock.lock();
+        try {
+            if (entry.queue == 0)
+                return;
+            weightedSize -= entry.weight;
+            queueOf(entry).remove(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ExpiryEntry<K, V> evict() {
+        lock.lock();
+        try {
+            reads.drainTo(applyRead);
+            if (weightedSize <= maximum)
+                return null;
+            ExpiryEntry<K, V> victim = victim();
+            if (victim != null) {
+                weightedSize -= victim.weight;
+                queueOf(victim).remove(victim);
+            }
+            return victim;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long weightedSize() {
+        lock.lock();
+        try {
+            return weightedSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long maximum() {
+        return maximum;
+    }
+
+    private void applyRead(ExpiryEntry<K, V> entry) {
+        if (entry.queue != 0) //it may have left the map since it was read
+            onAccess(entry);
+    }
+
+    private static void validate(int weight) {
+        if (weight < 0)
+            throw new IllegalArgumentException("Weight must be a positive value");
+    }
+
+    /**
+     * Place a new entry in the queues.
+     */
+    protected abstract void onAdd(ExpiryEntry<K, V> entry);
+
+    /**
+     * Reorder an entry that has been read or overwritten.
+     */
+    protected abstract void onAccess(ExpiryEntry<K, V> entry);
+
+    /**
+     * @return the entry to evict next, left in its queue
+     */
+    protected abstract ExpiryEntry<K, V> victim();
+
+    protected abstract AccessQueue<K, V> queueOf(ExpiryEntry<K, V> entry);
+}
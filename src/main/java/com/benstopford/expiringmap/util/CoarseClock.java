@@ -0,0 +1,53 @@
+package com.benstopford.expiringmap.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Clock that reads a cached time rather than calling System.nanoTime. A
+ * background thread refreshes it at a fixed resolution, so now() is a
+ * single volatile read.
+ * <p>
+ * The time read may be up to one resolution behind. Deadlines are taken
+ * from the same clock they are checked against, so with a 1ms resolution
+ * entries expire within about 1ms of their timeout. That is plenty where
+ * timeouts are seconds or more, and it takes the clock call off the put
+ * and get paths.
+ * <p>
+ * One clock can serve any number of maps. close() stops its thread.
+ */
+public class CoarseClock implements Clock, AutoCloseable {
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private final long resolutionNanos;
+    private final Thread ticker;
+    private volatile long now = System.nanoTime();
+    private volatile boolean closed;
+
+    public CoarseClock(long resolution, TimeUnit unit) {
+        this.resolutionNanos = unit.toNanos(resolution);
+        if (resolutionNanos <= 0)
+            throw new IllegalArgumentException("Resolution must be at least a nanosecond");
+        this.ticker = new Thread(this::tick, "clock-" + threadCount.incrementAndGet());
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    private void tick() {
+        while (!closed) {
+            LockSupport.parkNanos(this, resolutionNanos);
+            now = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+    }
+}
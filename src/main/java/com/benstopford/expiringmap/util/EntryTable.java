@@ -0,0 +1,302 @@
+package com.benstopford.expiringmap.util;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * A hash table whose nodes are the entries themselves, for an ExpiringMap
+ * built with compactEntries(). Each entry carries its key, value,
+ * deadline, scheduler links and hash chain link, so the map has one object
+ * per key rather than an entry plus a ConcurrentHashMap node, which holds
+ * the key a second time.
+ * <p>
+ * Entries must come from newEntry(). Writes take a lock. Reads take none:
+ * an entry leaving the table keeps its chain link, so a reader standing on
+ * it still reaches the rest of the chain. Only a resize relinks entries
+ * in place, so reads are optimistic against resizes and retry, holding
+ * them off, if one got in the way.
+ * <p>
+ * Iteration is weakly consistent, as with ConcurrentHashMap, except that
+ * an iteration across a resize may miss or repeat an entry. The values()
+ * spliterator splits by ranges of bins, for parallel scans.
+ */
+public class EntryTable<K, V> extends AbstractMap<K, ExpiryEntry<K, V>> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final StampedLock resizing = new StampedLock();
+    private volatile AtomicReferenceArray<TableEntry<K, V>> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private volatile int size;
+
+    public ExpiryEntry<K, V> newEntry(long expiry, K key, V value) {
+        return new TableEntry<>(expiry, key, value, hash(key));
+    }
+
+    @Override
+    public ExpiryEntry<K, V> get(Object key) {
+        int hash = hash(key);
+        long stamp = resizing.tryOptimisticRead();
+        TableEntry<K, V> entry = find(table, key, hash);
+        if (resizing.validate(stamp))
+            return entry;
+        stamp = resizing.readLock();
+        try {
+            return find(table, key, hash);
+        } finally {
+            resizing.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public ExpiryEntry<K, V> put(K key, ExpiryEntry<K, V> entry) {
+        return link(key, entry, false);
+    }
+
+    @Override
+    public ExpiryEntry<K, V> putIfAbsent(K key, ExpiryEntry<K, V> entry) {
+        return link(key, entry, true);
+    }
+
+    @Override
+    public ExpiryEntry<K, V> remove(Object key) {
+        return unlink(key, null);
+    }
+
+    @Override
+    public boolean remove(Object key, Object entry) {
+        return entry != null && unlink(key, entry) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<ExpiryEntry<K, V>> values() {
+        return new AbstractCollection<ExpiryEntry<K, V>>() {
+            @Override
+            public Iterator<ExpiryEntry<K, V>> iterator() {
+                return Spliterators.iterator(spliterator());
+            }
+
+            @Override
+            public Spliterator<ExpiryEntry<K, V>> spliterator() {
+                AtomicReferenceArray<TableEntry<K, V>> table = EntryTable.this.table;
+                return new Bins<>(table, 0, table.length(), size);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<K, ExpiryEntry<K, V>>> entrySet() {
+        return new AbstractSet<Map.Entry<K, ExpiryEntry<K, V>>>() {
+            @Override
+            public Iterator<Map.Entry<K, ExpiryEntry<K, V>>> iterator() {
+                Iterator<ExpiryEntry<K, V>> entries = values().iterator();
+                return new Iterator<Map.Entry<K, ExpiryEntry<K, V>>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<K, ExpiryEntry<K, V>> next() {
+                        ExpiryEntry<K, V> entry = entries.next();
+                        return new SimpleImmutableEntry<>(entry.key(), entry);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private ExpiryEntry<K, V> link(K key, ExpiryEntry<K, V> entry, boolean onlyIfAbsent) {
+        TableEntry<K, V> node = (TableEntry<K, V>) entry;
+        lock.lock();
+        try {
+            AtomicReferenceArray<TableEntry<K, V>> table = this.table;
+            int bin = node.hash & (table.length() - 1);
+            TableEntry<K, V> previous = null;
+            for (TableEntry<K, V> e = table.get(bin); e != null; previous = e, e = e.chain) {
+                if (e.hash == node.hash && matches(key, e)) {
+                    if (!onlyIfAbsent && e != node) {
+                        node.chain = e.chain;
+                        set(table, bin, previous, node);
+                    }
+                    return e;
+                }
+            }
+            node.chain = table.get(bin);
+            table.set(bin, node);
+            if (++size > table.length() - (table.length() >>> 2))
+                resize(table);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the key's entry, if it is the one given or none is.
+     */
+    private ExpiryEntry<K, V> unlink(Object key, Object expected) {
+        int hash = hash(key);
+        lock.lock();
+        try {
+            AtomicReferenceArray<TableEntry<K, V>> table = this.table;
+            int bin = hash & (table.length() - 1);
+            TableEntry<K, V> previous = null;
+            for (TableEntry<K, V> e = table.get(bin); e != null; previous = e, e = e.chain) {
+                if (e.hash == hash && matches(key, e)) {
+                    if (expected != null && e != expected)
+                        return null;
+                    set(table, bin, previous, e.chain);
+                    size--;
+                    return e;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Double the table, relinking each entry into its new bin. Holds off
+     * readers, as they could otherwise follow a relinked entry into the
+     * wrong chain.
+     */
+    private void resize(AtomicReferenceArray<TableEntry<K, V>> table) {
+        int capacity = table.length() << 1;
+        AtomicReferenceArray<TableEntry<K, V>> grown = new AtomicReferenceArray<>(capacity);
+        long stamp = resizing.writeLock();
+        try {
+            for (int i = 0; i < table.length(); i++) {
+                TableEntry<K, V> e = table.get(i);
+                while (e != null) {
+                    TableEntry<K, V> next = e.chain;
+                    int bin = e.hash & (capacity - 1);
+                    e.chain = grown.get(bin);
+                    grown.set(bin, e);
+                    e = next;
+                }
+            }
+            this.table = grown;
+        } finally {
+            resizing.unlockWrite(stamp);
+        }
+    }
+
+    private static <K, V> TableEntry<K, V> find(AtomicReferenceArray<TableEntry<K, V>> table, Object key, int hash) {
+        for (TableEntry<K, V> e = table.get(hash & (table.length() - 1)); e != null; e = e.chain) {
+            if (e.hash == hash && matches(key, e))
+                return e;
+        }
+        return null;
+    }
+
+    private static <K, V> void set(AtomicReferenceArray<TableEntry<K, V>> table, int bin, TableEntry<K, V> previous, TableEntry<K, V> next) {
+        if (previous == null)
+            table.set(bin, next);
+        else
+            previous.chain = next;
+    }
+
+    private static boolean matches(Object key, ExpiryEntry<?, ?> entry) {
+        Object k = entry.key();
+        return k == key || key.equals(k);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Walks the chains of a range of bins, and splits by halving the range.
+     */
+    private static class Bins<K, V> implements Spliterator<ExpiryEntry<K, V>> {
+        private final AtomicReferenceArray<TableEntry<K, V>> table;
+        private int bin;
+        private int end;
+        private TableEntry<K, V> next;
+        private long estimate;
+
+        Bins(AtomicReferenceArray<TableEntry<K, V>> table, int bin, int end, long estimate) {
+            this.table = table;
+            this.bin = bin;
+            this.end = end;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ExpiryEntry<K, V>> action) {
+            TableEntry<K, V> e = next;
+            while (e == null) {
+                if (bin >= end)
+                    return false;
+                e = table.get(bin++);
+            }
+            next = e.chain;
+            action.accept(e);
+            return true;
+        }
+
+        @Override
+        public Spliterator<ExpiryEntry<K, V>> trySplit() {
+            int mid = (bin + end) >>> 1;
+            if (mid <= bin)
+                return null;
+            Bins<K, V> split = new Bins<>(table, mid, end, estimate >>>= 1);
+            end = mid;
+            return split;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return CONCURRENT | NONNULL;
+        }
+    }
+}
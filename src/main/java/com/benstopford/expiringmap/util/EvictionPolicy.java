@@ -0,0 +1,48 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * Bounds a map by size or weight, choosing which entries to evict when it
+ * is over capacity. Runs alongside the ExpiryScheduler: an entry leaves
+ * the map when it expires or is evicted, whichever comes first.
+ * <p>
+ * Reads are recorded without taking a lock, so implementations may drop
+ * some under contention. Everything else is called by writers and must be
+ * thread safe.
+ *
+ * @param <K> the type of keys being evicted
+ * @param <V> the type of values being evicted
+ */
+public interface EvictionPolicy<K, V> {
+
+    /**
+     * Start tracking a new entry.
+     */
+    void add(ExpiryEntry<K, V> entry, int weight);
+
+    /**
+     * A tracked entry has been overwritten. Does nothing if it is no longer tracked.
+     */
+    void update(ExpiryEntry<K, V> entry, int weight);
+
+    /**
+     * An entry has been read. Must not block.
+     */
+    void recordAccess(ExpiryEntry<K, V> entry);
+
+    /**
+     * Stop tracking an entry that has left the map. Does nothing if it is not tracked.
+     */
+    void remove(ExpiryEntry<K, V> entry);
+
+    /**
+     * Remove and return the next entry to evict, while over capacity.
+     *
+     * @return the entry to evict, or null if within capacity
+     */
+    ExpiryEntry<K, V> evict();
+
+    /**
+     * @return the total weight of the entries tracked
+     */
+    long weightedSize();
+}
@@ -1,19 +1,84 @@
 package com.benstopford.expiringmap.util;
 
-public class ExpiryEntry<K> {
-    private long expiry;
-    private K key;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
-    public ExpiryEntry(long expiry, K key) {
+/**
+ * A key's value and the time it expires. The backing map and the scheduler
+ * share the one entry, and it is reused when the key is overwritten.
+ */
+public class ExpiryEntry<K, V> {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<ExpiryEntry> EXPIRY = AtomicLongFieldUpdater.newUpdater(ExpiryEntry.class, "expiry");
+
+    //changed by the scheduler holding this entry, under its lock, or pushed later by touch()
+    volatile long expiry;
+    //nanoseconds each access extends the entry by, in a map that expires after access
+    private volatile long timeout;
+    private final K key;
+    private volatile V value;
+
+    //position within the scheduler holding this entry, -1 when not scheduled
+    int position = -1;
+
+    //bucket links, owned by the TimingWheelScheduler
+    ExpiryEntry<K, V> prev;
+    ExpiryEntry<K, V> next;
+
+    //access order links and weight, owned by the EvictionPolicy of a bounded map
+    ExpiryEntry<K, V> older;
+    ExpiryEntry<K, V> newer;
+    int weight;
+    byte queue; //the policy's queue holding this entry, 0 when none
+
+    public ExpiryEntry(long expiry, K key, V value) {
         this.expiry = expiry;
         this.key = key;
+        this.value = value;
     }
 
-    public Long expiry() {
+    public long expiry() {
         return expiry;
     }
 
     public K key() {
         return key;
     }
+
+    public V value() {
+        return value;
+    }
+
+    public void setValue(V value) {
+        this.value = value;
+    }
+
+    /**
+     * @return nanoseconds each access extends the entry by, or 0 if the map doesn't expire after access
+     */
+    public long timeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeoutNanos) {
+        this.timeout = timeoutNanos;
+    }
+
+    /**
+     * Push the expiry out to the timeout from now, for a map that expires
+     * entries after access. It only ever moves later, and moves of less than
+     * 1/64th of the timeout are skipped, so a key that is read constantly
+     * isn't written on every read. The scheduler isn't told: it finds the
+     * later expiry when the entry reaches the head, and schedules it again.
+     */
+    public void touch(long now) {
+        long timeout = this.timeout;
+        long extended = now + timeout;
+        if (now > 0 && extended < 0)
+            extended = Long.MAX_VALUE;
+        long current;
+        while (extended > (current = expiry) && extended - current >= timeout >>> 6) {
+            if (EXPIRY.compareAndSet(this, current, extended))
+                return;
+        }
+    }
 }
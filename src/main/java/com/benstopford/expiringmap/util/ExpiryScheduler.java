@@ -0,0 +1,111 @@
+package com.benstopford.expiringmap.util;
+
+import java.util.Collection;
+
+/**
+ * Orders expiry entries so the expiry service can find the ones that are due.
+ * <p>
+ * Implementations are called concurrently by writers and the expiry thread
+ * so must be thread safe.
+ *
+ * @param <K> the type of keys being expired
+ * @param <V> the type of values being expired
+ */
+public interface ExpiryScheduler<K, V> {
+
+    /**
+     * Add an entry to the schedule.
+     *
+     * @param entry
+     * @return true if the entry brought the next expiry forward, so a waiting expiry thread should be woken
+     */
+    boolean schedule(ExpiryEntry<K, V> entry);
+
+    /**
+     * Add a batch of entries to the schedule, as one operation.
+     *
+     * @param entries
+     * @return true if the batch brought the next expiry forward, so a waiting expiry thread should be woken
+     */
+    default boolean scheduleAll(Collection<? extends ExpiryEntry<K, V>> entries) {
+        boolean earlier = false;
+        for (ExpiryEntry<K, V> entry : entries)
+            earlier |= schedule(entry);
+        return earlier;
+    }
+
+    /**
+     * Move a scheduled entry to a new expiry time, in place.
+     * <p>
+     * Fails if the entry has already been handed out as expired or been
+     * cancelled, in which case it must not be reused.
+     *
+     * @param entry
+     * @param expiry
+     * @return true if the entry was still scheduled and has been moved
+     */
+    boolean reschedule(ExpiryEntry<K, V> entry, long expiry);
+
+    /**
+     * Remove a previously scheduled entry. Does nothing if the entry is not scheduled.
+     *
+     * @param entry
+     */
+    void cancel(ExpiryEntry<K, V> entry);
+
+    /**
+     * Remove a batch of previously scheduled entries, as one operation. Entries that are not scheduled are skipped.
+     *
+     * @param entries
+     */
+    default void cancelAll(Collection<? extends ExpiryEntry<K, V>> entries) {
+        for (ExpiryEntry<K, V> entry : entries)
+            cancel(entry);
+    }
+
+    /**
+     * Remove an entry if it is still scheduled and due at the passed time.
+     * Lets a reader that finds an expired entry retire it without racing a
+     * writer that is moving the same entry to a later time.
+     *
+     * @param entry
+     * @param now
+     * @return true if the entry was due and has been removed, so must not be reused
+     */
+    boolean cancelIfExpired(ExpiryEntry<K, V> entry, long now);
+
+    /**
+     * Remove and return an entry that is due at the passed time.
+     *
+     * @param now
+     * @return an expired entry, or null if none are due
+     */
+    ExpiryEntry<K, V> pollExpired(long now);
+
+    /**
+     * Remove entries that are due at the passed time, up to a limit.
+     *
+     * @param now
+     * @param max the most entries to remove
+     * @param expired collects the entries removed
+     * @return the number of entries removed
+     */
+    default int drainExpired(long now, int max, Collection<? super ExpiryEntry<K, V>> expired) {
+        int count = 0;
+        ExpiryEntry<K, V> entry;
+        while (count < max && (entry = pollExpired(now)) != null) {
+            expired.add(entry);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * The time at which the scheduler next needs attention.
+     *
+     * @return the next expiry time, or Long.MAX_VALUE if nothing is scheduled
+     */
+    long nextExpiry();
+
+    int size();
+}
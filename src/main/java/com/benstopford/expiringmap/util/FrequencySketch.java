@@ -0,0 +1,68 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * Count-min sketch of how often keys are used, in 4 bit counters packed
+ * sixteen to a long. Each key maps to four counters and its frequency is
+ * the smallest of them. Once a sample's worth of increments has been
+ * counted every counter is halved, so the sketch follows recent
+ * popularity rather than all time totals.
+ */
+class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_TABLE = 1 << 24;
+
+    private final long[] table;
+    private final int sampleSize;
+    private int increments;
+
+    FrequencySketch(long maximum) {
+        int length = (int) Math.min(Math.max(maximum, 16), MAX_TABLE);
+        this.table = new long[Integer.highestOneBit(length - 1) << 1];
+        this.sampleSize = 10 * table.length;
+    }
+
+    int frequency(Object key) {
+        int h = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++)
+            frequency = Math.min(frequency, (int) (table[index(h, i)] >>> offset(h, i)) & 0xf);
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int h = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = index(h, i);
+            int offset = offset(h, i);
+            if (((table[index] >>> offset) & 0xf) < 15) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++increments == sampleSize)
+            reset();
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++)
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        increments /= 2;
+    }
+
+    private int index(int h, int i) {
+        long hash = (h + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 32;
+        return (int) hash & (table.length - 1);
+    }
+
+    private static int offset(int h, int i) {
+        return ((h >>> (i << 2)) & 0xf) << 2;
+    }
+
+    private static int spread(int h) {
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        return (h >>> 16) ^ h;
+    }
+}
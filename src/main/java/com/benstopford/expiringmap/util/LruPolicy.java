@@ -0,0 +1,38 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * Evicts the least recently used entry.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class LruPolicy<K, V> extends BoundedPolicy<K, V> {
+    private final AccessQueue<K, V> queue = new AccessQueue<>(1);
+
+    /**
+     * @param maximum the most entries, or the most total weight if the map has a Weigher
+     */
+    public LruPolicy(long maximum) {
+        super(maximum);
+    }
+
+    @Override
+    protected void onAdd(ExpiryEntry<K, V> entry) {
+        queue.addNewest(entry);
+    }
+
+    @Override
+    protected void onAccess(ExpiryEntry<K, V> entry) {
+        queue.moveToNewest(entry);
+    }
+
+    @Override
+    protected ExpiryEntry<K, V> victim() {
+        return queue.oldest();
+    }
+
+    @Override
+    protected AccessQueue<K, V> queueOf(ExpiryEntry<K, V> entry) {
+        return queue;
+    }
+}
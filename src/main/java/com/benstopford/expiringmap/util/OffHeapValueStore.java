@@ -0,0 +1,272 @@
+package com.benstopford.expiringmap.util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * ValueStore that keeps values outside the Java heap, so however much a
+ * map holds the garbage collector only has its keys and entries to trace.
+ * <p>
+ * Values are serialized into slabs, large direct ByteBuffers or, given a
+ * directory, memory mapped files. Each slab is carved into slots whose
+ * sizes are powers of two. When an entry leaves the map, through expiry,
+ * removal or being replaced, its slot goes onto a free list for its size
+ * and is reused by the next value that needs one that size.
+ * <p>
+ * Writes allocate and free under a lock. Reads are optimistic: they copy
+ * the value's bytes out and then check no write happened meanwhile, and
+ * only take the lock, as readers, if one did.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class OffHeapValueStore<K, V> implements ValueStore<K, V> {
+    public static final int DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+    static final int RELEASED = -1;
+    private static final int MIN_SLOT_BITS = 4;
+
+    private final Serializer<V> serializer;
+    private final int slabSize;
+    private final Path directory;
+    private final StampedLock lock = new StampedLock();
+    private final LongStack[] free;
+    private final List<Path> files = new ArrayList<>();
+
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private int top; //next unallocated byte of the newest slab
+    private long usedBytes;
+
+    public OffHeapValueStore(Serializer<V> serializer) {
+        this(serializer, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Slabs of direct memory.
+     */
+    public OffHeapValueStore(Serializer<V> serializer, int slabSize) {
+        this(serializer, slabSize, null);
+    }
+
+    /**
+     * Slabs memory mapped from files created in the directory, and deleted on close, or at exit if they are still
+     * mapped.
+     */
+    public OffHeapValueStore(Serializer<V> serializer, int slabSize, Path directory) {
+        if (Integer.bitCount(slabSize) != 1 || slabSize < 1 << MIN_SLOT_BITS || slabSize > 1 << 30)
+            throw new IllegalArgumentException("Slab size must be a power of two from 16 bytes to 1GB");
+        this.serializer = serializer;
+        this.slabSize = slabSize;
+        this.directory = directory;
+        this.free = new LongStack[Integer.numberOfTrailingZeros(slabSize) + 1];
+        for (int i = MIN_SLOT_BITS; i < free.length; i++)
+            free[i] = new LongStack();
+        this.top = slabSize;
+    }
+
+    @Override
+    public ExpiryEntry<K, V> create(long expiry, K key, V value) {
+        SlotEntry<K, V> entry = new SlotEntry<>(expiry, key);
+        write(entry, value, true);
+        return entry;
+    }
+
+    /**
+     * Does nothing if the entry has been released, as it has left the map.
+     */
+    @Override
+    public void update(ExpiryEntry<K, V> entry, V value) {
+        write((SlotEntry<K, V>) entry, value, false);
+    }
+
+    private void write(SlotEntry<K, V> slot, V value, boolean created) {
+        byte[] bytes = serializer.serialize(value);
+        if (bytes.length > slabSize)
+            throw new IllegalArgumentException("Value of " + bytes.length + " bytes is larger than a slab");
+
+        long stamp = lock.writeLock();
+        try {
+            if (!created && slot.length == RELEASED)
+                return;
+            free(slot);
+            long address = allocate(bytes.length);
+            ByteBuffer buffer = slabs[slab(address)].duplicate();
+            buffer.position(offset(address));
+            buffer.put(bytes);
+            slot.address = address;
+            slot.length = bytes.length;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V read(ExpiryEntry<K, V> entry) {
+        SlotEntry<K, V> slot = (SlotEntry<K, V>) entry;
+        byte[] bytes;
+        long stamp = lock.tryOptimisticRead();
+        try {
+            bytes = copy(slot);
+        } catch (RuntimeException e) {
+            bytes = null; //read mid-write, so retry below
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                bytes = copy(slot);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return bytes == null ? null : serializer.deserialize(bytes);
+    }
+
+    @Override
+    public void release(ExpiryEntry<K, V> entry) {
+        long stamp = lock.writeLock();
+        try {
+            free((SlotEntry<K, V>) entry);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            slabs = new ByteBuffer[0];
+            for (LongStack stack : free)
+                if (stack != null)
+                    stack.size = 0;
+            usedBytes = 0;
+            top = slabSize;
+            for (Path file : files)
+                delete(file);
+            files.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return bytes of slab memory reserved
+     */
+    public long allocatedBytes() {
+        return (long) slabs.length * slabSize;
+    }
+
+    /**
+     * @return bytes of slab memory in slots holding values
+     */
+    public long usedBytes() {
+        long stamp = lock.readLock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private byte[] copy(SlotEntry<K, V> slot) {
+        int length = slot.length;
+        if (length == RELEASED)
+            return null;
+        long address = slot.address;
+        ByteBuffer buffer = slabs[slab(address)].duplicate();
+        buffer.position(offset(address));
+        byte[] bytes = new byte[Math.min(length, slabSize)];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private void free(SlotEntry<K, V> slot) {
+        if (slot.length == RELEASED)
+            return;
+        int sizeClass = sizeClass(slot.length);
+        free[sizeClass].push(slot.address);
+        usedBytes -= 1 << sizeClass;
+        slot.length = RELEASED;
+    }
+
+    private long allocate(int length) {
+        int sizeClass = sizeClass(length);
+        int size = 1 << sizeClass;
+        usedBytes += size;
+        LongStack stack = free[sizeClass];
+        if (stack.size > 0)
+            return stack.pop();
+
+        if (top + size > slabSize) {
+            ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+            grown[slabs.length] = newSlab();
+            slabs = grown;
+            top = 0;
+        }
+        long address = (long) (slabs.length - 1) << 32 | top;
+        top += size;
+        return address;
+    }
+
+    /**
+     * A slab stays mapped until its buffer is collected, and some platforms,
+     * Windows among them, refuse to delete a mapped file. Such a file is
+     * deleted when the JVM exits instead.
+     */
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    private ByteBuffer newSlab() {
+        if (directory == null)
+            return ByteBuffer.allocateDirect(slabSize);
+        try {
+            Path file = Files.createTempFile(directory, "slab", ".bin");
+            files.add(file);
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, slabSize);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int sizeClass(int length) {
+        return length <= 1 << MIN_SLOT_BITS ? MIN_SLOT_BITS : 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+
+    private static int slab(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private static class LongStack {
+        private long[] values = new long[16];
+        private int size;
+
+        void push(long value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        long pop() {
+            return values[--size];
+        }
+    }
+}
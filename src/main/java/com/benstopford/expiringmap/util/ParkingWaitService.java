@@ -0,0 +1,42 @@
+package com.benstopford.expiringmap.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * WaitService that parks the waiting thread rather than waiting on a
+ * monitor. Each map has its own, so a notify only ever wakes that map's
+ * expiry thread.
+ * <p>
+ * Notifications are latched. One that arrives before the thread parks
+ * makes the wait return straight away, so it can't be lost between the
+ * expiry thread reading its next deadline and going to sleep.
+ */
+public class ParkingWaitService implements WaitService {
+    private final AtomicBoolean notified = new AtomicBoolean();
+    private volatile Thread waiter;
+
+    @Override
+    public void doWait(long ms, int ns) throws InterruptedException {
+        waiter = Thread.currentThread();
+        if (!notified.getAndSet(false)) {
+            if (ms == 0 && ns == 0)
+                LockSupport.park(this);
+            else
+                LockSupport.parkNanos(this, MILLISECONDS.toNanos(ms) + ns);
+            notified.set(false); //the caller re-reads the schedule after waking
+        }
+        if (Thread.interrupted())
+            throw new InterruptedException();
+    }
+
+    @Override
+    public void doNotify() {
+        notified.set(true);
+        Thread thread = waiter;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+}
@@ -0,0 +1,237 @@
+package com.benstopford.expiringmap.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exact scheduler. Entries are held in a binary heap ordered by their
+ * expiry time, so each is released at precisely its deadline.
+ * <p>
+ * The heap is a pair of parallel arrays, one of entries and one of their
+ * deadlines as primitive longs, so sifting compares longs in a single
+ * array rather than chasing pointers and unboxing. Each entry records its
+ * index in the heap, so cancel and reschedule don't need to search for it.
+ * Schedule, reschedule, cancel and poll are all O(log n), and none of them
+ * allocate once the arrays have grown to the working size. A batch at least
+ * as large as the heap is appended and the heap rebuilt, in O(n), rather
+ * than sifting in each entry.
+ * <p>
+ * Callers share it under a ReentrantLock rather than a monitor, so a
+ * virtual thread that has to wait for it parks rather than pinning its
+ * carrier.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class PriorityQueueScheduler<K, V> implements ExpiryScheduler<K, V> {
+    private static final int INITIAL_CAPACITY = 16;
+    private final ReentrantLock lock = new ReentrantLock();
+    private ExpiryEntry<K, V>[] heap = newHeap(INITIAL_CAPACITY);
+    private long[] deadlines = new long[INITIAL_CAPACITY];
+    private int size;
+
+    @Override
+    public boolean schedule(ExpiryEntry<K, V> entry) {
+        lock.lock();
+        try {
+            if (entry.position >= 0)
+                return false;
+            grow(size + 1);
+
+            int i = size++;
+            place(entry, entry.expiry, i);
+            siftUp(i);
+            return heap[0] == entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean scheduleAll(Collection<? extends ExpiryEntry<K, V>> entries) {
+        lock.lock();
+        try {
+            int before = size;
+            long next = size == 0 ? Long.MAX_VALUE : deadlines[0];
+            grow(size + entries.size());
+            for (ExpiryEntry<K, V> entry : entries)
+                if (entry.position < 0)
+                    place(entry, entry.expiry, size++);
+
+            int added = size - before;
+            if (added >= before) {
+                for (int i = (size >>> 1) - 1; i >= 0; i--)
+                    siftDown(i);
+            } else {
+                for (int i = before; i < size; i++)
+                    siftUp(i);
+            }
+            return size > 0 && (before == 0 || deadlines[0] < next);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean reschedule(ExpiryEntry<K, V> entry, long expiry) {
+        lock.lock();
+        try {
+            int i = entry.position;
+            if (i < 0)
+                return false;
+
+            entry.expiry = expiry;
+            deadlines[i] = expiry;
+            siftDown(i);
+            if (heap[i] == entry)
+                siftUp(i);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void cancel(ExpiryEntry<K, V> entry) {
+        lock.lock();
+        try {
+            if (entry.position >= 0)
+                removeAt(entry.position);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void cancelAll(Collection<? extends ExpiryEntry<K, V>> entries) {
+        lock.lock();
+        try {
+            for (ExpiryEntry<K, V> entry : entries)
+                if (entry.position >= 0)
+                    removeAt(entry.position);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean cancelIfExpired(ExpiryEntry<K, V> entry, long now) {
+        lock.lock();
+        try {
+            if (entry.position < 0 || entry.expiry > now)
+                return false;
+            removeAt(entry.position);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ExpiryEntry<K, V> pollExpired(long now) {
+        lock.lock();
+        try {
+            return size > 0 && deadlines[0] <= now ? removeAt(0) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainExpired(long now, int max, Collection<? super ExpiryEntry<K, V>> expired) {
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < max && size > 0 && deadlines[0] <= now) {
+                expired.add(removeAt(0));
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long nextExpiry() {
+        lock.lock();
+        try {
+            return size == 0 ? Long.MAX_VALUE : deadlines[0];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void grow(int capacity) {
+        if (capacity > heap.length) {
+            int length = Math.max(capacity, heap.length * 2);
+            heap = Arrays.copyOf(heap, length);
+            deadlines = Arrays.copyOf(deadlines, length);
+        }
+    }
+
+    private ExpiryEntry<K, V> removeAt(int i) {
+        ExpiryEntry<K, V> removed = heap[i];
+        int last = --size;
+        if (i != last) {
+            place(heap[last], deadlines[last], i);
+            siftDown(i);
+            if (heap[i] == heap[last])
+                siftUp(i);
+        }
+        heap[last] = null;
+        removed.position = -1;
+        return removed;
+    }
+
+    private void siftUp(int i) {
+        ExpiryEntry<K, V> entry = heap[i];
+        long deadline = deadlines[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (deadlines[parent] <= deadline)
+                break;
+            place(heap[parent], deadlines[parent], i);
+            i = parent;
+        }
+        place(entry, deadline, i);
+    }
+
+    private void siftDown(int i) {
+        ExpiryEntry<K, V> entry = heap[i];
+        long deadline = deadlines[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && deadlines[child + 1] < deadlines[child])
+                child++;
+            if (deadline <= deadlines[child])
+                break;
+            place(heap[child], deadlines[child], i);
+            i = child;
+        }
+        place(entry, deadline, i);
+    }
+
+    private void place(ExpiryEntry<K, V> entry, long deadline, int i) {
+        heap[i] = entry;
+        deadlines[i] = deadline;
+        entry.position = i;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> ExpiryEntry<K, V>[] newHeap(int capacity) {
+        return new ExpiryEntry[capacity];
+    }
+}
@@ -0,0 +1,70 @@
+package com.benstopford.expiringmap.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lossy, striped buffer of reads waiting to be applied to an eviction
+ * policy. Readers pick a stripe by thread and claim a slot with a single
+ * CAS; if the stripe is full or the CAS is lost the read is dropped
+ * rather than waited for. The policy drains the buffer under its own lock.
+ */
+class ReadBuffer<E> {
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+    private static final int SIZE = 16;
+
+    //generic array creation; only ever holds this buffer's stripes
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Stripe<E>[] stripes = new Stripe[STRIPES];
+
+    ReadBuffer() {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe<>();
+    }
+
+    /**
+     * @return false if the read was dropped
+     */
+    boolean offer(E e) {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+        return stripes[h & (STRIPES - 1)].offer(e);
+    }
+
+    /**
+     * Only one thread may drain at a time.
+     */
+    void drainTo(Consumer<E> consumer) {
+        for (Stripe<E> stripe : stripes)
+            stripe.drainTo(consumer);
+    }
+
+    private static class Stripe<E> {
+        private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(SIZE);
+        private final AtomicLong writes = new AtomicLong();
+        private volatile long reads;
+
+        boolean offer(E e) {
+            long tail = writes.get();
+            if (tail - reads >= SIZE || !writes.compareAndSet(tail, tail + 1))
+                return false;
+            slots.lazySet((int) tail & (SIZE - 1), e);
+            return true;
+        }
+
+        void drainTo(Consumer<E> consumer) {
+            long head = reads;
+            long tail = writes.get();
+            for (; head < tail; head++) {
+                int slot = (int) head & (SIZE - 1);
+                E e = slots.get(slot);
+                if (e == null)
+                    break; //claimed but not yet written, pick it up next time
+                slots.lazySet(slot, null);
+                consumer.accept(e);
+            }
+            reads = head;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * Why an entry left a map.
+ */
+public enum RemovalCause {
+    /**
+     * Its timeout passed.
+     */
+    EXPIRED,
+    /**
+     * Its key was put again, with a new value.
+     */
+    REPLACED,
+    /**
+     * Its key was removed.
+     */
+    EXPLICIT,
+    /**
+     * It was evicted to keep a bounded map within its maximum.
+     */
+    CAPACITY
+}
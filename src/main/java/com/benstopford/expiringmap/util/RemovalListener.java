@@ -0,0 +1,10 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * Told of each entry that leaves a map, with its key, value and why it left.
+ * Called on the map's removal executor, never by the thread that removed
+ * the entry.
+ */
+public interface RemovalListener<K, V> {
+    void onRemoval(K key, V value, RemovalCause cause);
+}
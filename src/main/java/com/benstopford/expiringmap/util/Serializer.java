@@ -0,0 +1,45 @@
+package com.benstopford.expiringmap.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Turns keys or values into bytes, and back, for an OffHeapValueStore or
+ * a map snapshot.
+ */
+public interface Serializer<V> {
+
+    byte[] serialize(V value);
+
+    V deserialize(byte[] bytes);
+
+    /**
+     * For values that are already bytes. Copies nothing beyond the store's own copy in and out.
+     */
+    static Serializer<byte[]> byteArray() {
+        return new Serializer<byte[]>() {
+            @Override
+            public byte[] serialize(byte[] value) {
+                return value;
+            }
+
+            @Override
+            public byte[] deserialize(byte[] bytes) {
+                return bytes;
+            }
+        };
+    }
+
+    static Serializer<String> utf8() {
+        return new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) {
+                return value.getBytes(UTF_8);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                return new String(bytes, UTF_8);
+            }
+        };
+    }
+}
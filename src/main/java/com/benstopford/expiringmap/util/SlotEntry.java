@@ -0,0 +1,14 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * An entry whose value lives in a slot of an OffHeapValueStore.
+ */
+class SlotEntry<K, V> extends ExpiryEntry<K, V> {
+    //written under the store's write lock
+    volatile long address;
+    volatile int length = OffHeapValueStore.RELEASED;
+
+    SlotEntry(long expiry, K key) {
+        super(expiry, key, null);
+    }
+}
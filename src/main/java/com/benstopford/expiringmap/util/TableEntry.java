@@ -0,0 +1,15 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * An entry that is also a node of an EntryTable's hash chains.
+ */
+class TableEntry<K, V> extends ExpiryEntry<K, V> {
+    final int hash;
+    //written under the table's lock; left alone once the entry leaves the table, for readers still walking past it
+    volatile TableEntry<K, V> chain;
+
+    TableEntry(long expiry, K key, V value, int hash) {
+        super(expiry, key, value);
+        this.hash = hash;
+    }
+}
@@ -0,0 +1,317 @@
+package com.benstopford.expiringmap.util;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel. Time is cut into ticks of a configurable
+ * resolution and entries are hashed into buckets by the tick they expire in.
+ * <p>
+ * There is a stack of wheels, each with 64 buckets. The first covers the next
+ * 64 ticks, the second the next 64 * 64 ticks and so on. An entry sits on the
+ * finest wheel that can hold its deadline, and cascades down to a finer wheel
+ * when the wheel above turns onto its bucket. A bitmap of occupied buckets per
+ * wheel lets the cursor jump straight over empty stretches of time.
+ * <p>
+ * Schedule, reschedule and cancel are O(1) and allocation free. Deadlines are rounded up to the next tick, so
+ * entries are released up to one tick late but never early. Use the
+ * PriorityQueueScheduler where exact deadlines matter. As there, callers
+ * share it under a ReentrantLock.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class TimingWheelScheduler<K, V> implements ExpiryScheduler<K, V> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int WHEELS = (Long.SIZE + SLOT_BITS - 1) / SLOT_BITS;
+    private static final int DUE = WHEELS * SLOTS;
+    private static final long NONE = 0; //events are always ahead of the cursor, so never tick zero
+
+    private final long tickNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ExpiryEntry<K, V>[] buckets;
+    private final long[] occupied = new long[WHEELS];
+
+    //ticks are held with the sign bit flipped so unsigned comparison follows time order
+    private long cursor;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheelScheduler(long tickResolution, TimeUnit unit) {
+        this.tickNanos = unit.toNanos(tickResolution);
+        if (tickNanos <= 0)
+            throw new IllegalArgumentException("Tick resolution must be at least a nanosecond");
+        this.buckets = new ExpiryEntry[DUE + 1];
+    }
+
+    @Override
+    public boolean schedule(ExpiryEntry<K, V> entry) {
+        lock.lock();
+        try {
+            if (entry.position >= 0)
+                return false;
+
+            boolean idle = buckets[DUE] == null;
+            long before = nextEvent();
+
+            place(entry);
+            size++;
+
+            return idle && (entry.position == DUE || before == NONE || Long.compareUnsigned(nextEvent(), before) < 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean scheduleAll(Collection<? extends ExpiryEntry<K, V>> entries) {
+        lock.lock();
+        try {
+            boolean idle = buckets[DUE] == null;
+            long before = nextEvent();
+
+            for (ExpiryEntry<K, V> entry : entries) {
+                if (entry.position < 0) {
+                    place(entry);
+                    size++;
+                }
+            }
+
+            if (!idle)
+                return false;
+            if (buckets[DUE] != null)
+                return true;
+            long after = nextEvent();
+            return after != NONE && (before == NONE || Long.compareUnsigned(after, before) < 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean reschedule(ExpiryEntry<K, V> entry, long expiry) {
+        lock.lock();
+        try {
+            if (entry.position < 0)
+                return false;
+
+            unlink(entry);
+            entry.expiry = expiry;
+            place(entry);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void cancel(ExpiryEntry<K, V> entry) {
+        lock.lock();
+        try {
+            if (entry.position >= 0) {
+                unlink(entry);
+                size--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void cancelAll(Collection<? extends ExpiryEntry<K, V>> entries) {
+        lock.lock();
+        try {
+            for (ExpiryEntry<K, V> entry : entries) {
+                if (entry.position >= 0) {
+                    unlink(entry);
+                    size--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean cancelIfExpired(ExpiryEntry<K, V> entry, long now) {
+        lock.lock();
+        try {
+            if (entry.position < 0 || entry.expiry > now)
+                return false;
+            unlink(entry);
+            size--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ExpiryEntry<K, V> pollExpired(long now) {
+        lock.lock();
+        try {
+            advanceTo(Math.floorDiv(now, tickNanos) ^ Long.MIN_VALUE);
+
+            ExpiryEntry<K, V> entry = buckets[DUE];
+            if (entry != null) {
+                unlink(entry);
+                size--;
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainExpired(long now, int max, Collection<? super ExpiryEntry<K, V>> expired) {
+        lock.lock();
+        try {
+            advanceTo(Math.floorDiv(now, tickNanos) ^ Long.MIN_VALUE);
+
+            int count = 0;
+            ExpiryEntry<K, V> entry;
+            while (count < max && (entry = buckets[DUE]) != null) {
+                unlink(entry);
+                size--;
+                expired.add(entry);
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long nextExpiry() {
+        lock.lock();
+        try {
+            if (buckets[DUE] != null)
+                return toNanos(cursor);
+            long next = nextEvent();
+            return next == NONE ? Long.MAX_VALUE : toNanos(next);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void advanceTo(long target) {
+        while (true) {
+            long next = nextEvent();
+            if (next == NONE || Long.compareUnsigned(next, target) > 0) {
+                if (Long.compareUnsigned(target, cursor) > 0)
+                    cursor = target;
+                return;
+            }
+            cursor = next;
+            cascade(bucketFor(next));
+        }
+    }
+
+    /**
+     * The tick at which the next bucket falls due, found from the lowest
+     * occupied bucket ahead of the cursor on the finest non-empty wheel.
+     */
+    private long nextEvent() {
+        for (int wheel = 0; wheel < WHEELS; wheel++) {
+            long ahead = occupied[wheel] & (-2L << slot(cursor, wheel));
+            if (ahead != 0) {
+                int shift = wheel * SLOT_BITS;
+                long higherWheels = shift + SLOT_BITS >= Long.SIZE ? 0 : cursor & (-1L << (shift + SLOT_BITS));
+                return higherWheels | ((long) Long.numberOfTrailingZeros(ahead) << shift);
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Events land on a bucket ahead of the cursor, so never slot zero. The wheel
+     * an event belongs to is therefore the lowest one with a non-zero slot.
+     */
+    private int bucketFor(long event) {
+        int wheel = Long.numberOfTrailingZeros(event) / SLOT_BITS;
+        return wheel * SLOTS + slot(event, wheel);
+    }
+
+    private void cascade(int bucket) {
+        ExpiryEntry<K, V> entry = buckets[bucket];
+        buckets[bucket] = null;
+        occupied[bucket >> SLOT_BITS] &= ~(1L << (bucket & SLOT_MASK));
+        while (entry != null) {
+            ExpiryEntry<K, V> next = entry.next;
+            place(entry);
+            entry = next;
+        }
+    }
+
+    private void place(ExpiryEntry<K, V> entry) {
+        long tick = deadlineTick(entry.expiry());
+        if (Long.compareUnsigned(tick, cursor) <= 0) {
+            link(entry, DUE);
+        } else {
+            int wheel = (Long.SIZE - 1 - Long.numberOfLeadingZeros(tick ^ cursor)) / SLOT_BITS;
+            link(entry, wheel * SLOTS + slot(tick, wheel));
+        }
+    }
+
+    private void link(ExpiryEntry<K, V> entry, int bucket) {
+        ExpiryEntry<K, V> head = buckets[bucket];
+        entry.prev = null;
+        entry.next = head;
+        if (head != null)
+            head.prev = entry;
+        buckets[bucket] = entry;
+        entry.position = bucket;
+        if (bucket != DUE)
+            occupied[bucket >> SLOT_BITS] |= 1L << (bucket & SLOT_MASK);
+    }
+
+    private void unlink(ExpiryEntry<K, V> entry) {
+        int bucket = entry.position;
+        if (entry.prev != null)
+            entry.prev.next = entry.next;
+        else
+            buckets[bucket] = entry.next;
+        if (entry.next != null)
+            entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        entry.position = -1;
+        if (bucket != DUE && buckets[bucket] == null)
+            occupied[bucket >> SLOT_BITS] &= ~(1L << (bucket & SLOT_MASK));
+    }
+
+    private long deadlineTick(long expiry) {
+        long tick = Math.floorDiv(expiry, tickNanos);
+        if (Math.floorMod(expiry, tickNanos) != 0)
+            tick++;
+        return tick ^ Long.MIN_VALUE;
+    }
+
+    private long toNanos(long tick) {
+        long time = tick ^ Long.MIN_VALUE;
+        if (time > Long.MAX_VALUE / tickNanos)
+            return Long.MAX_VALUE;
+        if (time < Long.MIN_VALUE / tickNanos)
+            return Long.MIN_VALUE;
+        return time * tickNanos;
+    }
+
+    private static int slot(long tick, int wheel) {
+        return (int) (tick >>> (wheel * SLOT_BITS)) & SLOT_MASK;
+    }
+}
@@ -0,0 +1,80 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * W-TinyLFU: a frequency aware policy that holds on to popular entries
+ * through bursts of one-off keys, where LRU would flush them out.
+ * <p>
+ * New entries go into a small LRU window (1% of capacity). Entries pushed
+ * out of the window join the probation segment of the main space, and an
+ * entry read while on probation is promoted to the protected segment (80%
+ * of the main space). When over capacity the newest entry on probation,
+ * usually the one just pushed out of the window, is weighed against the
+ * oldest using a FrequencySketch of recent use, and the less frequent of
+ * the two is evicted.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class TinyLfuPolicy<K, V> extends BoundedPolicy<K, V> {
+    private final AccessQueue<K, V> window = new AccessQueue<>(1);
+    private final AccessQueue<K, V> probation = new AccessQueue<>(2);
+    private final AccessQueue<K, V> protectedQueue = new AccessQueue<>(3);
+    private final FrequencySketch sketch;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+
+    /**
+     * @param maximum the most entries, or the most total weight if the map has a Weigher
+     */
+    public TinyLfuPolicy(long maximum) {
+        super(maximum);
+        this.windowMaximum = Math.max(1, maximum / 100);
+        this.protectedMaximum = (maximum - windowMaximum) * 8 / 10;
+        this.sketch = new FrequencySketch(maximum);
+    }
+
+    @Override
+    protected void onAdd(ExpiryEntry<K, V> entry) {
+        sketch.increment(entry.key());
+        window.addNewest(entry);
+        while (window.weight > windowMaximum && window.oldest() != entry) {
+            ExpiryEntry<K, V> candidate = window.oldest();
+            window.remove(candidate);
+            probation.addNewest(candidate);
+        }
+    }
+
+    @Override
+    protected void onAccess(ExpiryEntry<K, V> entry) {
+        sketch.increment(entry.key());
+        if (window.holds(entry)) {
+            window.moveToNewest(entry);
+        } else if (probation.holds(entry)) {
+            probation.remove(entry);
+            protectedQueue.addNewest(entry);
+            while (protectedQueue.weight > protectedMaximum && protectedQueue.oldest() != entry) {
+                ExpiryEntry<K, V> demoted = protectedQueue.oldest();
+                protectedQueue.remove(demoted);
+                probation.addNewest(demoted);
+            }
+        } else {
+            protectedQueue.moveToNewest(entry);
+        }
+    }
+
+    @Override
+    protected ExpiryEntry<K, V> victim() {
+        ExpiryEntry<K, V> candidate = probation.newest();
+        ExpiryEntry<K, V> victim = probation.oldest();
+        if (candidate == null)
+            return protectedQueue.oldest() != null ? protectedQueue.oldest() : window.oldest();
+        if (candidate == victim)
+            return victim;
+        return sketch.frequency(candidate.key()) > sketch.frequency(victim.key()) ? victim : candidate;
+    }
+
+    @Override
+    protected AccessQueue<K, V> queueOf(ExpiryEntry<K, V> entry) {
+        return entry.queue == 1 ? window : entry.queue == 2 ? probation : protectedQueue;
+    }
+}
@@ -0,0 +1,36 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * Holds a map's values somewhere other than in its entries, such as off
+ * the heap. The map creates its entries through the store and reads and
+ * writes their values through it.
+ * <p>
+ * Each entry is released exactly once, when it leaves the map, whether
+ * removed, replaced, evicted or expired, so its storage can be reused.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public interface ValueStore<K, V> {
+
+    ExpiryEntry<K, V> create(long expiry, K key, V value);
+
+    /**
+     * Replace the value of an entry that is being overwritten.
+     */
+    void update(ExpiryEntry<K, V> entry, V value);
+
+    /**
+     * May be called concurrently with writes and releases, without locking.
+     *
+     * @return the entry's value, or null if it has been released
+     */
+    V read(ExpiryEntry<K, V> entry);
+
+    void release(ExpiryEntry<K, V> entry);
+
+    /**
+     * Release everything the store holds. It can't be used afterwards.
+     */
+    void close();
+}
@@ -1,15 +1,40 @@
 package com.benstopford.expiringmap.util;
 
+/**
+ * Pauses the expiry thread until its next deadline, or until a writer
+ * notifies it that something more imminent has arrived.
+ * <p>
+ * A wait of 0ms and 0ns waits until notified.
+ */
 public interface WaitService {
-    public WaitService DEFAULT = new WaitService() {
+    /**
+     * Waits and notifies on one monitor shared by every map in the JVM, so
+     * each notify wakes every expiry thread waiting on it.
+     *
+     * @deprecated each map now has a ParkingWaitService of its own, which
+     * only wakes its own thread. Kept so existing callers compile.
+     */
+    @Deprecated
+    WaitService DEFAULT = new WaitService() {
+        //notifications so far, and the count each thread had seen when it last waited
+        private long notified;
+        private final ThreadLocal<Long> seen = ThreadLocal.withInitial(() -> 0L);
+
         @Override
         public void doWait(long ms, int ns) throws InterruptedException {
-            WaitService.class.wait(ms, ns);
+            synchronized (WaitService.class) {
+                if (notified == seen.get()) //otherwise notified since we last waited, so don't wait now
+                    WaitService.class.wait(ms, ns);
+                seen.set(notified);
+            }
         }
 
         @Override
         public void doNotify() {
-            WaitService.class.notifyAll();
+            synchronized (WaitService.class) {
+                notified++;
+                WaitService.class.notifyAll();
+            }
         }
     };
 
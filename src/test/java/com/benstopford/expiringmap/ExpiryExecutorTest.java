@@ -0,0 +1,149 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.PriorityQueueScheduler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ExpiryExecutorTest {
+    private long now;
+
+    @Test
+    public void shouldExpireManyMapsFromOneThread() throws InterruptedException {
+        //Given
+        ExpiryExecutor executor = new ExpiryExecutor(1);
+        List<ExpiringMap<String, String>> maps = new ArrayList<>();
+        now = 0;
+        for (int i = 0; i < 100; i++) {
+            ExpiringMap<String, String> map = new ExpiringMap<>(() -> now, new PriorityQueueScheduler<>(), executor);
+            map.put("short", "value", 5 + i % 10);
+            map.put("long", "value", HOURS.toMillis(1));
+            maps.add(map);
+        }
+
+        //When
+        now += MILLISECONDS.toNanos(20);
+
+        //Then
+        for (ExpiringMap<String, String> map : maps) {
+            waitForSize(map, 1);
+            assertThat(map.get("short"), is(nullValue()));
+            assertThat(map.get("long"), is("value"));
+        }
+        executor.close();
+    }
+
+    @Test
+    public void shouldKeepExpiringOtherMapsWhenOneThrows() throws InterruptedException {
+        //Given
+        ExpiryExecutor executor = new ExpiryExecutor(1);
+        executor.register(() -> {
+            throw new IllegalStateException("listener failed");
+        });
+        ExpiringMap<String, String> map = new ExpiringMap<>(executor);
+
+        //When
+        map.put("key1", "value1", 5);
+
+        //Then
+        waitForSize(map, 0);
+        assertThat(executor.failures() > 0, is(true));
+        executor.close();
+    }
+
+    @Test
+    public void shouldKeepExpiringOtherMapsWhenOneIsClosed() throws InterruptedException {
+        //Given
+        ExpiryExecutor executor = new ExpiryExecutor(1);
+        ExpiringMap<String, String> closed = new ExpiringMap<>(executor);
+        ExpiringMap<String, String> open = new ExpiringMap<>(executor);
+
+        //When
+        closed.close();
+        open.put("key1", "value1", 5);
+
+        //Then
+        waitForSize(open, 0);
+        executor.close();
+    }
+
+    @Test
+    public void shouldStopTheMapsOwnThreadWhenClosed() throws InterruptedException {
+        //Given (threads of maps closed by earlier tests may still be stopping, so track this map's own)
+        Set<Thread> before = expiryThreads();
+        ExpiringMap<String, String> map = new ExpiringMap<>();
+        Set<Thread> own = expiryThreads();
+        own.removeAll(before);
+        assertThat(own.size(), is(1));
+        Thread thread = own.iterator().next();
+
+        //When
+        map.close();
+
+        //Then
+        int count = 0;
+        while (thread.isAlive()) {
+            Thread.sleep(1);
+            if (count++ > 1000)
+                throw new RuntimeException("Expiry thread took more than 1s to stop");
+        }
+    }
+
+    @Test
+    public void shouldNotStartThreadsForMapsUsingASharedExecutor() {
+        ExpiryExecutor executor = new ExpiryExecutor(2);
+        Set<Thread> before = expiryThreads();
+
+        for (int i = 0; i < 100; i++)
+            new ExpiringMap<String, String>(executor);
+
+        Set<Thread> started = expiryThreads();
+        started.removeAll(before);
+        assertThat(started.isEmpty(), is(true));
+        executor.close();
+    }
+
+    @Test
+    public void shouldReleaseEntriesWhenClosed() {
+        ExpiringMap<String, String> map = new ExpiringMap<>();
+        map.put("key1", "value1", HOURS.toMillis(1));
+
+        map.close();
+
+        assertThat(map.size(), is(0));
+        assertThat(map.get("key1"), is(nullValue()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectWritesOnceClosed() {
+        ExpiringMap<String, String> map = new ExpiringMap<>();
+        map.close();
+        map.put("key1", "value1", 5);
+    }
+
+    private Set<Thread> expiryThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.getName().startsWith("expiry-") && thread.isAlive())
+                threads.add(thread);
+        return threads;
+    }
+
+    private void waitForSize(ExpiringMap<String, String> map, int size) throws InterruptedException {
+        int count = 0;
+        while (map.size() != size) {
+            Thread.sleep(1);
+            if (count++ > 1000)
+                throw new RuntimeException("Map took more than 1s to reach size " + size);
+        }
+    }
+}
@@ -1,16 +1,22 @@
 package com.benstopford.expiringmap;
 
 import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.*;
 
 import com.benstopford.expiringmap.util.Clock;
 import com.benstopford.expiringmap.util.ExpiryEntry;
+import com.benstopford.expiringmap.util.ExpiryScheduler;
+import com.benstopford.expiringmap.util.PriorityQueueScheduler;
 import com.benstopford.expiringmap.util.WaitService;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
 
 public class ExpiryServiceTest {
 
@@ -19,7 +25,7 @@ public class ExpiryServiceTest {
     private ExpiryService service;
     private Clock clock;
     private WaitService waitService;
-    private BlockingQueue queue;
+    private ExpiryScheduler scheduler;
     private Map map;
 
     @Before
@@ -27,7 +33,7 @@ public class ExpiryServiceTest {
         service = new ExpiryService();
         clock = mock(Clock.class);
         waitService = mock(WaitService.class);
-        queue = mock(BlockingQueue.class);
+        scheduler = mock(ExpiryScheduler.class);
         map = mock(Map.class);
     }
 
@@ -36,12 +42,30 @@ public class ExpiryServiceTest {
 
         long now = 5L;
         long expiry = 4;
-        when(queue.take()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(expiry, "key1", "value1");
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        scheduler.schedule(entry);
         when(clock.now()).thenReturn(now);
 
-        service.attemptExpiry(clock, waitService, queue, map);
+        service.expire(clock, scheduler, map);
 
-        verify(map).remove("key1");
+        verify(map).remove("key1", entry);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void shouldSweepAndThenWaitForTheNextEntryWhenAttemptingExpiry() throws InterruptedException {
+
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        ExpiryEntry<String, String> due = new ExpiryEntry<>(4, "key1", "value1");
+        scheduler.schedule(due);
+        scheduler.schedule(new ExpiryEntry<>(5 + 3 * ms, "key2", "value2"));
+        when(clock.now()).thenReturn(5L);
+
+        service.attemptExpiry(clock, waitService, scheduler, map);
+
+        verify(map).remove("key1", due);
+        verify(waitService).doWait(3, 0);
     }
 
     @Test
@@ -49,12 +73,14 @@ public class ExpiryServiceTest {
 
         long now = 5L;
         long expiry = 5;
-        when(queue.take()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(expiry, "key1", "value1");
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        scheduler.schedule(entry);
         when(clock.now()).thenReturn(now);
 
-        service.attemptExpiry(clock, waitService, queue, map);
+        service.expire(clock, scheduler, map);
 
-        verify(map).remove("key1");
+        verify(map).remove("key1", entry);
     }
 
     @Test
@@ -62,13 +88,13 @@ public class ExpiryServiceTest {
 
         long now = 5L;
         long expiry = 6;
-        when(queue.take()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
-        when(queue.peek()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        scheduler.schedule(new ExpiryEntry<>(expiry, "key1", "value1"));
         when(clock.now()).thenReturn(now);
 
-        service.attemptExpiry(clock, waitService, queue, map);
+        service.expire(clock, scheduler, map);
 
-        verify(map, never()).remove("key1");
+        verify(map, never()).remove(eq("key1"), any());
     }
 
     @Test
@@ -76,11 +102,10 @@ public class ExpiryServiceTest {
 
         long now = 1 * ms;
         long expiry = 2 * ms;
-        when(queue.take()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
-        when(queue.peek()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
+        when(scheduler.nextExpiry()).thenReturn(expiry);
         when(clock.now()).thenReturn(now);
 
-        service.attemptExpiry(clock, waitService, queue, map);
+        ExpiryService.waitFor(service.expire(clock, scheduler, map), waitService);
 
         verify(waitService).doWait(1, 0);
     }
@@ -90,11 +115,10 @@ public class ExpiryServiceTest {
 
         long now = 2 * ms;
         long expiry = 12 * ms;
-        when(queue.take()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
-        when(queue.peek()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
+        when(scheduler.nextExpiry()).thenReturn(expiry);
         when(clock.now()).thenReturn(now);
 
-        service.attemptExpiry(clock, waitService, queue, map);
+        ExpiryService.waitFor(service.expire(clock, scheduler, map), waitService);
 
         verify(waitService).doWait(10, 0);
     }
@@ -104,11 +128,10 @@ public class ExpiryServiceTest {
 
         long now = 1 * ms + 50 * us;
         long expiry = 1 * ms + 100 * us;
-        when(queue.take()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
-        when(queue.peek()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
+        when(scheduler.nextExpiry()).thenReturn(expiry);
         when(clock.now()).thenReturn(now);
 
-        service.attemptExpiry(clock, waitService, queue, map);
+        ExpiryService.waitFor(service.expire(clock, scheduler, map), waitService);
 
         verify(waitService).doWait(0, 50*us);
     }
@@ -118,15 +141,246 @@ public class ExpiryServiceTest {
 
         long now = 1 * ms + 50;
         long expiry = 1 * ms + 100;
-        when(queue.take()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
-        when(queue.peek()).thenReturn(new ExpiryEntry<>(expiry, "key1"));
+        when(scheduler.nextExpiry()).thenReturn(expiry);
         when(clock.now()).thenReturn(now);
 
-        service.attemptExpiry(clock, waitService, queue, map);
+        ExpiryService.waitFor(service.expire(clock, scheduler, map), waitService);
 
         verify(waitService).doWait(0, 50);
     }
 
-}
-    
+    @Test
+    public void shouldWaitToBeNotifiedIfNothingIsScheduled() throws InterruptedException {
+
+        when(scheduler.nextExpiry()).thenReturn(Long.MAX_VALUE);
+        when(clock.now()).thenReturn(5L);
+
+        ExpiryService.waitFor(service.expire(clock, scheduler, map), waitService);
+
+        verify(waitService).doWait(0, 0);
+    }
+
+    @Test
+    public void shouldNotWaitIfTheNextExpiryHasAlreadyPassed() throws InterruptedException {
+
+        when(scheduler.nextExpiry()).thenReturn(4L);
+        when(clock.now()).thenReturn(5L);
+
+        ExpiryService.waitFor(service.expire(clock, scheduler, map), waitService);
+
+        verify(waitService, never()).doWait(anyLong(), anyInt());
+    }
+
+    @Test
+    public void shouldSweepEverythingDueInOnePassWithOneClockRead() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        Map<String, ExpiryEntry<String, String>> map = new HashMap<>();
+        for (int i = 0; i < 10; i++)
+            add(new ExpiryEntry<>(i, "key" + i, "value"), scheduler, map);
+        add(new ExpiryEntry<>(20, "later", "value"), scheduler, map);
+        when(clock.now()).thenReturn(9L);
+
+        //When
+        long waitTime = service.expire(clock, scheduler, map);
+
+        //Then
+        assertThat(service.lastSweepSize(), is(10));
+        assertThat(map.keySet().toString(), is("[later]"));
+        assertThat(waitTime, is(11L));
+        verify(clock, times(1)).now();
+    }
+
+    @Test
+    public void shouldStopSweepingAtTheBatchSizeAndAskToRunAgain() {
+        //Given
+        ExpiryService<String, String> service = new ExpiryService<>(3);
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        Map<String, ExpiryEntry<String, String>> map = new HashMap<>();
+        for (int i = 0; i < 5; i++)
+            add(new ExpiryEntry<>(i, "key" + i, "value"), scheduler, map);
+        when(clock.now()).thenReturn(10L);
+
+        //When
+        long waitTime = service.expire(clock, scheduler, map);
+
+        //Then
+        assertThat(service.lastSweepSize(), is(3));
+        assertThat(map.size(), is(2));
+        assertThat(waitTime, is(0L));
+
+        //When
+        service.expire(clock, scheduler, map);
+
+        //Then
+        assertThat(service.lastSweepSize(), is(2));
+        assertThat(map.size(), is(0));
+    }
 
+    @Test
+    public void shouldNotCountEntriesWhoseKeyHasBeenOverwritten() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        Map<String, ExpiryEntry<String, String>> map = new HashMap<>();
+        scheduler.schedule(new ExpiryEntry<>(1, "key1", "old"));
+        add(new ExpiryEntry<>(20, "key1", "new"), scheduler, map);
+        when(clock.now()).thenReturn(10L);
+
+        //When
+        service.expire(clock, scheduler, map);
+
+        //Then
+        assertThat(service.lastSweepSize(), is(0));
+        assertThat(map.get("key1").value(), is("new"));
+    }
+
+    @Test
+    public void shouldNotSweepAgainWithinTheSweepInterval() {
+        //Given
+        ExpiryService<String, String> service = new ExpiryService<>(10, 100);
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        Map<String, ExpiryEntry<String, String>> map = new HashMap<>();
+        add(new ExpiryEntry<>(5, "key1", "value"), scheduler, map);
+        add(new ExpiryEntry<>(20, "key2", "value"), scheduler, map);
+        when(clock.now()).thenReturn(10L);
+
+        //When
+        long waitTime = service.expire(clock, scheduler, map);
+
+        //Then the wait stretches to the interval
+        assertThat(map.keySet().toString(), is("[key2]"));
+        assertThat(waitTime, is(100L));
+
+        //When woken early
+        when(clock.now()).thenReturn(50L);
+        waitTime = service.expire(clock, scheduler, map);
+
+        //Then
+        assertThat(map.keySet().toString(), is("[key2]"));
+        assertThat(waitTime, is(60L));
+
+        //When
+        when(clock.now()).thenReturn(110L);
+        service.expire(clock, scheduler, map);
+
+        //Then
+        assertThat(map.size(), is(0));
+    }
+
+    private void add(ExpiryEntry<String, String> entry, PriorityQueueScheduler<String, String> scheduler, Map<String, ExpiryEntry<String, String>> map) {
+        scheduler.schedule(entry);
+        map.put(entry.key(), entry);
+    }
+
+    @Test
+    public void shouldScheduleAgainAnEntryWhoseExpiryHasMovedLater() {
+        //Given
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(10, "key1", "value1");
+        entry.setTimeout(20);
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        scheduler.schedule(entry);
+        Map<String, ExpiryEntry<String, String>> map = new HashMap<>();
+        map.put("key1", entry);
+        entry.touch(5);
+        when(clock.now()).thenReturn(10L);
+
+        //When
+        long wait = service.expire(clock, scheduler, map);
+
+        //Then
+        assertThat(map.get("key1"), is(entry));
+        assertThat(scheduler.nextExpiry(), is(25L));
+        assertThat(wait, is(15L));
+    }
+
+    @Test
+    public void shouldSweepInGrowingBatchesWhileBehind() {
+        //Given a thousand entries, all overdue by more than the lag threshold
+        ExpiryService<String, String> service = new ExpiryService<>(10, 0, ms, entry -> {
+        });
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        Map<String, ExpiryEntry<String, String>> map = new HashMap<>();
+        for (int i = 0; i < 1000; i++)
+            add(new ExpiryEntry<>(i, "key" + i, "value"), scheduler, map);
+        when(clock.now()).thenReturn(10L * ms);
+
+        //When
+        List<Integer> sweeps = new ArrayList<>();
+        while (!map.isEmpty()) {
+            service.expire(clock, scheduler, map);
+            sweeps.add(service.lastSweepSize());
+        }
+
+        //Then the batch doubles each sweep, up to 64 times its size
+        assertThat(sweeps, is(Arrays.asList(10, 20, 40, 80, 160, 320, 370)));
+        assertThat(service.behind(), is(false));
+        assertThat(service.lagNanos(), is(0L));
+    }
+
+    @Test
+    public void shouldReportTheLagOfTheOldestEntryStillDue() {
+        //Given
+        ExpiryService<String, String> service = new ExpiryService<>(1, 0, ms, entry -> {
+        });
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        Map<String, ExpiryEntry<String, String>> map = new HashMap<>();
+        add(new ExpiryEntry<>(ms, "key1", "value1"), scheduler, map);
+        add(new ExpiryEntry<>(2 * ms, "key2", "value2"), scheduler, map);
+        add(new ExpiryEntry<>(10 * ms, "key3", "value3"), scheduler, map);
+        when(clock.now()).thenReturn(5L * ms);
+
+        //When
+        long wait = service.expire(clock, scheduler, map);
+
+        //Then key2 is still due, 3ms late
+        assertThat(service.lagNanos(), is(3L * ms));
+        assertThat(service.behind(), is(true));
+        assertThat(wait, is(0L));
+    }
+
+    @Test
+    public void shouldLetOtherThreadsSweepABatch() {
+        //Given
+        ExpiryService<String, String> service = new ExpiryService<>(10, 0, ms, entry -> {
+        });
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        Map<String, ExpiryEntry<String, String>> map = new HashMap<>();
+        for (int i = 0; i < 100; i++)
+            add(new ExpiryEntry<>(i, "key" + i, "value"), scheduler, map);
+        when(clock.now()).thenReturn(10L * ms);
+
+        //When
+        int removed = service.assist(clock, scheduler, map);
+
+        //Then
+        assertThat(removed, is(ExpiryService.ASSIST_BATCH_SIZE));
+        assertThat(map.size(), is(100 - ExpiryService.ASSIST_BATCH_SIZE));
+        assertThat(service.behind(), is(true));
+    }
+
+    @Test
+    public void shouldAskToBeWokenForDeadlinesBeforeItMeansToWake() {
+        //Given
+        ExpiryService<String, String> service = new ExpiryService<>(10, 100 * ms);
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        Map<String, ExpiryEntry<String, String>> map = new HashMap<>();
+        when(clock.now()).thenReturn(0L);
+
+        //When nothing is scheduled
+        long wait = service.expire(clock, scheduler, map);
+
+        //Then
+        assertThat(wait, is(Long.MAX_VALUE));
+        assertThat(service.shouldWakeFor(Long.MAX_VALUE - 1), is(true));
+
+        //When the next deadline is an hour away
+        add(new ExpiryEntry<>(3600_000L * ms, "key1", "value1"), scheduler, map);
+        when(clock.now()).thenReturn(100L * ms);
+        wait = service.expire(clock, scheduler, map);
+
+        //Then
+        assertThat(wait, is(3599_900L * ms));
+        assertThat(service.shouldWakeFor(60_000L * ms), is(true));
+        assertThat(service.shouldWakeFor(7200_000L * ms), is(false));
+    }
+}
@@ -0,0 +1,160 @@
+package com.benstopford.expiringmap;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class LongExpiringMapTest {
+    private long now;
+
+    @Test
+    public void shouldPutGetAndRemoveValues() {
+        //Given
+        LongExpiringMap<String> map = new LongExpiringMap<>();
+
+        //When
+        map.put(1L, "value1", HOURS.toMillis(1));
+        map.put(0L, "zero", HOURS.toMillis(1));
+        map.put(-5L, "negative", HOURS.toMillis(1));
+        map.put(1L, "value2", HOURS.toMillis(1));
+        map.remove(0L);
+
+        //Then
+        assertThat(map.get(1L), is("value2"));
+        assertThat(map.get(0L), is(nullValue()));
+        assertThat(map.get(-5L), is("negative"));
+        assertThat(map.size(), is(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowExceptionForNegativeTimeouts() {
+        new LongExpiringMap<String>().put(1L, "v", -5);
+    }
+
+    @Test
+    public void shouldNotReturnExpiredValues() {
+        //Given
+        LongExpiringMap<String> map = new LongExpiringMap<>(() -> now);
+        now = 0;
+        map.put(1L, "value1", 5);
+        map.put(2L, "value2", 10);
+
+        //When
+        now += MILLISECONDS.toNanos(5);
+
+        //Then
+        assertThat(map.get(1L), is(nullValue()));
+        assertThat(map.get(2L), is("value2"));
+    }
+
+    @Test
+    public void shouldExpireEntriesInTheBackground() throws InterruptedException {
+        //Given
+        LongExpiringMap<String> map = new LongExpiringMap<>(() -> now);
+        now = 0;
+        for (long key = 0; key < 1000; key++)
+            map.put(key, "value", key % 2 == 0 ? 5 : HOURS.toMillis(1));
+
+        //When
+        now += MILLISECONDS.toNanos(5);
+
+        int count = 0;
+        while (map.size() > 500 && count++ < 1000)
+            Thread.sleep(1);
+
+        //Then
+        assertThat(map.size(), is(500));
+        assertThat(map.get(3L), is("value"));
+    }
+
+    @Test
+    public void shouldExpireAtTheEarlierTimeWhenAKeyIsOverwrittenWithAShorterTimeout() throws InterruptedException {
+        //Given
+        LongExpiringMap<String> map = new LongExpiringMap<>(() -> now);
+        now = 0;
+        map.put(1L, "value1", HOURS.toMillis(1));
+
+        //When
+        map.put(1L, "value2", 5);
+        now += MILLISECONDS.toNanos(5);
+
+        int count = 0;
+        while (map.size() > 0 && count++ < 1000)
+            Thread.sleep(1);
+
+        //Then
+        assertThat(map.size(), is(0));
+    }
+
+    @Test
+    public void shouldAgreeWithAHashMapThroughRandomPutsAndRemoves() {
+        //Given
+        LongExpiringMap<Long> map = new LongExpiringMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        //When keys collide, probe runs wrap and the table grows
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(5000) * 1024L;
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, (long) i, HOURS.toMillis(1));
+                expected.put(key, (long) i);
+            }
+        }
+
+        //Then
+        assertThat(map.size(), is(expected.size()));
+        for (long key = 0; key < 5000 * 1024L; key += 1024)
+            assertThat(map.get(key), is(expected.get(key)));
+    }
+
+    @Test
+    public void shouldShrinkBackWhenClosed() {
+        //Given
+        LongExpiringMap<String> map = new LongExpiringMap<>();
+        for (long key = 0; key < 1000; key++)
+            map.put(key, "value", HOURS.toMillis(1));
+
+        //When
+        map.close();
+
+        //Then
+        assertThat(map.size(), is(0));
+        assertThat(map.capacity(), is(16));
+    }
+
+    @Test
+    public void shouldNotAddAnEntryOnceClosedPartWayThroughAPut() {
+        //Given a map closed as a put reads the time
+        Thread writer = Thread.currentThread();
+        AtomicReference<LongExpiringMap<String>> map = new AtomicReference<>();
+        map.set(new LongExpiringMap<>(() -> {
+            if (Thread.currentThread() == writer)
+                map.get().close();
+            return now;
+        }));
+
+        //When
+        try {
+            map.get().put(1L, "value1", HOURS.toMillis(1));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        //Then
+        assertThat(map.get().size(), is(0));
+    }
+}
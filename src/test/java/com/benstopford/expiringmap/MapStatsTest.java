@@ -0,0 +1,156 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.LruPolicy;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class MapStatsTest {
+    private long now;
+
+    @Test
+    public void shouldCountHitsMissesPutsAndRemoves() {
+        //Given
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder().recordStats().build();
+
+        //When
+        map.put("key1", "value1", HOURS.toMillis(1));
+        map.put("key1", "value2", HOURS.toMillis(1));
+        map.put("key2", "value2", HOURS.toMillis(1));
+        map.get("key1");
+        map.get("key1");
+        map.get("missing");
+        map.remove("key2");
+        map.remove("missing");
+
+        //Then
+        MapStats stats = map.stats();
+        assertThat(stats.getPuts(), is(3L));
+        assertThat(stats.getHits(), is(2L));
+        assertThat(stats.getMisses(), is(1L));
+        assertThat(stats.getHitRate(), is(2.0 / 3));
+        assertThat(stats.getRemoves(), is(1L));
+        assertThat(stats.getSize(), is(1));
+        assertThat(stats.getQueueDepth(), is(1));
+        map.close();
+    }
+
+    @Test
+    public void shouldCountExpiredReadsAsMissesAndExpirations() {
+        //Given
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .clock(() -> now)
+                .sweepInterval(1, HOURS)
+                .recordStats()
+                .build();
+        now = 0;
+        map.put("key1", "value1", 10);
+
+        //When
+        now += MILLISECONDS.toNanos(12);
+        map.get("key1");
+
+        //Then
+        MapStats stats = map.stats();
+        assertThat(stats.getMisses(), is(1L));
+        assertThat(stats.getExpirations(), is(1L));
+        assertThat(stats.getExpiryLagMaxNanos(), is(MILLISECONDS.toNanos(2)));
+        assertThat(stats.getQueueDepth(), is(0));
+        map.close();
+    }
+
+    @Test
+    public void shouldRecordLagOfEntriesTheExpiryThreadRemoves() throws InterruptedException {
+        //Given
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder()
+                .clock(() -> now)
+                .recordStats()
+                .build();
+        now = 0;
+        map.put("key1", "value1", 10);
+        map.put("key2", "value2", 10);
+
+        //When
+        now += MILLISECONDS.toNanos(10) + 100;
+        int count = 0;
+        while (map.size() > 0 && count++ < 1000)
+            Thread.sleep(1);
+
+        //Then
+        MapStats stats = map.stats();
+        assertThat(stats.getExpirations(), is(2L));
+        assertThat(stats.getExpiryLagMaxNanos(), is(100L));
+        assertThat(stats.getExpiryLagMedianNanos(), is(127L));
+        map.close();
+    }
+
+    @Test
+    public void shouldCountEvictions() {
+        //Given
+        ExpiringMap<Integer, String> map = ExpiringMap.<Integer, String>builder()
+                .evictionPolicy(new LruPolicy<>(10))
+                .recordStats()
+                .build();
+
+        //When
+        for (int i = 0; i < 15; i++)
+            map.put(i, "value", HOURS.toMillis(1));
+
+        //Then
+        assertThat(map.stats().getEvictions(), is(5L));
+        assertThat(map.stats().getSize(), is(10));
+        map.close();
+    }
+
+    @Test
+    public void shouldBucketLagsByPowersOfTwo() {
+        //Given
+        MapStats stats = new MapStats(() -> 0, () -> 0);
+
+        //When
+        for (int i = 0; i < 98; i++)
+            stats.recordExpiration(5);
+        stats.recordExpiration(0);
+        stats.recordExpiration(1000);
+
+        //Then
+        assertThat(stats.expiryLagHistogram()[0], is(1L));
+        assertThat(stats.expiryLagHistogram()[3], is(98L));
+        assertThat(stats.expiryLagHistogram()[10], is(1L));
+        assertThat(stats.expiryLagPercentile(0), is(0L));
+        assertThat(stats.getExpiryLagMedianNanos(), is(7L));
+        assertThat(stats.getExpiryLag99thPercentileNanos(), is(7L));
+        assertThat(stats.expiryLagPercentile(100), is(1023L));
+        assertThat(stats.getExpiryLagMaxNanos(), is(1000L));
+    }
+
+    @Test
+    public void shouldPublishStatsOverJmxUntilTheMapIsClosed() throws Exception {
+        //Given
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = MapStats.objectName("sessions");
+        ExpiringMap<String, String> map = ExpiringMap.<String, String>builder().recordStats("sessions").build();
+
+        //When
+        map.put("key1", "value1", HOURS.toMillis(1));
+        map.get("key1");
+
+        //Then
+        assertThat(server.getAttribute(name, "Hits"), is((Object) 1L));
+        assertThat(server.getAttribute(name, "Size"), is((Object) 1));
+        map.close();
+        assertThat(server.isRegistered(name), is(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotHaveStatsUnlessRecorded() {
+        new ExpiringMap<String, String>().stats();
+    }
+}
@@ -0,0 +1,100 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.RemovalCause;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class RemovalNotifierTest {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<String> delivered = new ArrayList<>();
+
+    @Test
+    public void shouldDeliverABurstOfRemovalsInOneTask() {
+        //Given
+        RemovalNotifier<String, String> notifier = new RemovalNotifier<>((key, value, cause) -> delivered.add(key), tasks::add);
+
+        //When
+        for (int i = 0; i < 100; i++)
+            notifier.removed("key" + i, "value", RemovalCause.EXPIRED);
+
+        //Then
+        assertThat(tasks.size(), is(1));
+        assertThat(delivered.size(), is(0));
+        tasks.get(0).run();
+        assertThat(delivered.size(), is(100));
+
+        //and the next removal submits a new task
+        notifier.removed("key100", "value", RemovalCause.EXPIRED);
+        assertThat(tasks.size(), is(2));
+    }
+
+    @Test
+    public void shouldDeliverRemovalsInTheOrderTheyWereQueuedWhateverTheirCause() {
+        //Given
+        RemovalNotifier<String, String> notifier = new RemovalNotifier<>((key, value, cause) -> delivered.add(key + ":" + value + ":" + cause), tasks::add);
+
+        //When
+        notifier.removed("key1", "value1", RemovalCause.EXPIRED);
+        notifier.removed("key2", "value2", RemovalCause.REPLACED);
+        notifier.removed("key1", "value3", RemovalCause.EXPLICIT);
+        notifier.removed("key3", "value4", RemovalCause.EXPIRED);
+        tasks.get(0).run();
+
+        //Then
+        assertThat(delivered, is(Arrays.asList(
+                "key1:value1:EXPIRED",
+                "key2:value2:REPLACED",
+                "key1:value3:EXPLICIT",
+                "key3:value4:EXPIRED")));
+    }
+
+    @Test
+    public void shouldDeliverRemovalsQueuedDuringADeliveryInTheSameTask() {
+        //Given a listener whose first removal causes another
+        AtomicReference<RemovalNotifier<String, String>> notifier = new AtomicReference<>();
+        notifier.set(new RemovalNotifier<>((key, value, cause) -> {
+            delivered.add(key);
+            if (key.equals("key1"))
+                notifier.get().removed("key2", "value2", RemovalCause.EXPIRED);
+        }, tasks::add));
+
+        //When
+        notifier.get().removed("key1", "value1", RemovalCause.EXPIRED);
+        tasks.get(0).run();
+
+        //Then
+        assertThat(tasks.size(), is(1));
+        assertThat(delivered, is(Arrays.asList("key1", "key2")));
+    }
+
+    @Test
+    public void shouldKeepDeliveringWhenTheListenerThrows() {
+        //Given
+        RemovalNotifier<String, String> notifier = new RemovalNotifier<>((key, value, cause) -> {
+            if (key.equals("key2"))
+                throw new IllegalStateException("listener failed");
+            delivered.add(key);
+        }, tasks::add);
+
+        //When
+        notifier.removed("key1", "value1", RemovalCause.EXPIRED);
+        notifier.removed("key2", "value2", RemovalCause.EXPIRED);
+        notifier.removed("key3", "value3", RemovalCause.EXPIRED);
+        tasks.get(0).run();
+
+        //Then
+        assertThat(delivered, is(Arrays.asList("key1", "key3")));
+
+        //and later removals are still delivered
+        notifier.removed("key4", "value4", RemovalCause.EXPIRED);
+        tasks.get(1).run();
+        assertThat(delivered, is(Arrays.asList("key1", "key3", "key4")));
+    }
+}
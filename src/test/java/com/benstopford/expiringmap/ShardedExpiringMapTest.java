@@ -0,0 +1,180 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.PriorityQueueScheduler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ShardedExpiringMapTest {
+    private long now;
+
+    @Test
+    public void shouldPutGetAndRemoveAcrossShards() {
+        //Given
+        ShardedExpiringMap<Integer, String> map = new ShardedExpiringMap<>(8);
+
+        //When
+        for (int i = 0; i < 1000; i++)
+            map.put(i, "value" + i, HOURS.toMillis(1));
+        map.remove(7);
+
+        //Then
+        assertThat(map.size(), is(999));
+        assertThat(map.get(7), is(nullValue()));
+        assertThat(map.get(500), is("value500"));
+        map.close();
+    }
+
+    @Test
+    public void shouldScanEveryShardAndSplitAcrossThem() {
+        //Given
+        ShardedExpiringMap<Integer, Integer> map = new ShardedExpiringMap<>(8);
+        for (int i = 0; i < 10_000; i++)
+            map.put(i, i, HOURS.toMillis(1));
+
+        //When
+        long sum = map.entries().parallel().mapToLong(LiveEntry::getValue).sum();
+        AtomicInteger count = new AtomicInteger();
+        map.forEach((key, value) -> count.incrementAndGet());
+
+        //Then
+        assertThat(sum, is(9_999L * 10_000 / 2));
+        assertThat(count.get(), is(10_000));
+        assertThat(map.spliterator().estimateSize(), is(10_000L));
+        map.close();
+    }
+
+    @Test
+    public void shouldSpreadTheKeysOfAShardAcrossItsTable() {
+        //Given
+        ShardedExpiringMap<Integer, String> map = new ShardedExpiringMap<>(16);
+        int bins = 8192;
+
+        //When keys in shard 0 are placed as a table of 8192 bins, indexing by the low bits of the spread hash, would
+        Set<Integer> used = new HashSet<>();
+        int keys = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (map.shard(i) == 0) {
+                keys++;
+                used.add((i ^ (i >>> 16)) & (bins - 1));
+            }
+        }
+
+        //Then they fill most of the bins a random placement would, not 1/16th of them
+        double expected = bins * (1 - Math.exp(-keys / (double) bins));
+        assertThat(keys > 5000 && keys < 7500, is(true));
+        assertThat(used.size() > expected * 0.9, is(true));
+        map.close();
+    }
+
+    @Test
+    public void shouldRoundTheShardCountUpToAPowerOfTwo() {
+        assertThat(new ShardedExpiringMap<String, String>(1).shards(), is(1));
+        assertThat(new ShardedExpiringMap<String, String>(2).shards(), is(2));
+        assertThat(new ShardedExpiringMap<String, String>(6).shards(), is(8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNeedAtLeastOneShard() {
+        new ShardedExpiringMap<String, String>(0);
+    }
+
+    @Test
+    public void shouldExpireEntriesInEveryShard() throws InterruptedException {
+        //Given
+        ShardedExpiringMap<Integer, String> map = new ShardedExpiringMap<>(4, () -> now, PriorityQueueScheduler::new, null);
+        now = 0;
+        for (int i = 0; i < 100; i++)
+            map.put(i, "value", i % 2 == 0 ? 5 : HOURS.toMillis(1));
+
+        //When
+        now += MILLISECONDS.toNanos(5);
+
+        int count = 0;
+        while (map.size() > 50 && count++ < 1000)
+            Thread.sleep(1);
+
+        //Then
+        assertThat(map.size(), is(50));
+        assertThat(map.get(2), is(nullValue()));
+        assertThat(map.get(3), is("value"));
+        map.close();
+    }
+
+    @Test
+    public void shouldTakeConcurrentWritesFromManyThreads() throws InterruptedException {
+        //Given
+        ShardedExpiringMap<Integer, String> map = new ShardedExpiringMap<>(16);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t * 10000;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++)
+                    map.put(offset + i, "value", HOURS.toMillis(1));
+            }));
+        }
+
+        //When
+        for (Thread writer : writers)
+            writer.start();
+        for (Thread writer : writers)
+            writer.join();
+
+        //Then
+        assertThat(map.size(), is(80000));
+        map.close();
+    }
+
+    @Test
+    public void shouldLeaveASharedExecutorRunningWhenClosed() throws InterruptedException {
+        //Given
+        ExpiryExecutor executor = new ExpiryExecutor(1);
+        ShardedExpiringMap<String, String> sharded = new ShardedExpiringMap<>(4, System::nanoTime, PriorityQueueScheduler::new, executor);
+        ExpiringMap<String, String> other = new ExpiringMap<>(executor);
+
+        //When
+        sharded.close();
+        other.put("key1", "value1", 1);
+
+        //Then
+        int count = 0;
+        while (other.size() > 0 && count++ < 1000)
+            Thread.sleep(1);
+        assertThat(other.size(), is(0));
+        executor.close();
+    }
+
+    @Test
+    public void shouldSplitBatchesAcrossShards() {
+        //Given
+        ShardedExpiringMap<Integer, String> map = new ShardedExpiringMap<>(8);
+        Map<Integer, String> batch = new HashMap<>();
+        for (int i = 0; i < 1000; i++)
+            batch.put(i, "value" + i);
+
+        //When
+        map.putAll(batch, HOURS.toMillis(1));
+        map.removeAll(Arrays.asList(1, 2, 3));
+
+        //Then
+        assertThat(map.size(), is(997));
+        Map<Integer, String> found = map.getAll(Arrays.asList(0, 1, 500, 5000));
+        assertThat(found.size(), is(2));
+        assertThat(found.get(0), is("value0"));
+        assertThat(found.get(500), is("value500"));
+        map.close();
+    }
+}
@@ -0,0 +1,104 @@
+package com.benstopford.expiringmap;
+
+import com.benstopford.expiringmap.util.Serializer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class SnapshotFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadBackRecordsThatStraddleTheMappedWindow() throws IOException {
+        //Given values from empty to several times the window
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        List<String> written = new ArrayList<>();
+        try (SnapshotFile.Writer<String, String> writer = new SnapshotFile.Writer<>(file, Serializer.utf8(), Serializer.utf8())) {
+            for (int i = 0; i < 200; i++) {
+                String value = repeat('x', (i * 7) % 300);
+                writer.write("key" + i, value, SECONDS.toNanos(60), i);
+                written.add("key" + i + "=" + value + "/" + i);
+            }
+            assertThat(writer.commit(), is(200L));
+        }
+
+        //When
+        List<String> read = new ArrayList<>();
+        long count = SnapshotFile.read(file, Serializer.utf8(), Serializer.utf8(),
+                (key, value, remaining, timeout) -> read.add(key + "=" + value + "/" + timeout), 64);
+
+        //Then
+        assertThat(count, is(200L));
+        assertThat(read, is(written));
+    }
+
+    @Test
+    public void shouldTakeTheTimeSinceTheSnapshotOffEachEntry() throws IOException {
+        //Given a snapshot taken a second ago
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        try (SnapshotFile.Writer<String, String> writer = new SnapshotFile.Writer<>(file, Serializer.utf8(), Serializer.utf8(),
+                System.currentTimeMillis() - 1000)) {
+            writer.write("key1", "value1", MILLISECONDS.toNanos(500), 0);
+            writer.write("key2", "value2", SECONDS.toNanos(60), 0);
+            writer.commit();
+        }
+
+        //When
+        List<Long> remaining = new ArrayList<>();
+        SnapshotFile.read(file, Serializer.utf8(), Serializer.utf8(), (key, value, left, timeout) -> remaining.add(left));
+
+        //Then
+        assertThat(remaining.get(0) <= -MILLISECONDS.toNanos(500), is(true));
+        assertThat(remaining.get(1) <= SECONDS.toNanos(59), is(true));
+        assertThat(remaining.get(1) > SECONDS.toNanos(50), is(true));
+    }
+
+    @Test
+    public void shouldLeaveThePreviousSnapshotInPlaceIfAWriteIsAbandoned() throws IOException {
+        //Given
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        try (SnapshotFile.Writer<String, String> writer = new SnapshotFile.Writer<>(file, Serializer.utf8(), Serializer.utf8())) {
+            writer.write("key1", "value1", SECONDS.toNanos(60), 0);
+            writer.commit();
+        }
+
+        //When
+        try (SnapshotFile.Writer<String, String> writer = new SnapshotFile.Writer<>(file, Serializer.utf8(), Serializer.utf8())) {
+            writer.write("key2", "value2", SECONDS.toNanos(60), 0);
+        }
+
+        //Then
+        List<String> keys = new ArrayList<>();
+        SnapshotFile.read(file, Serializer.utf8(), Serializer.utf8(), (key, value, left, timeout) -> keys.add(key));
+        assertThat(keys, is(Arrays.asList("key1")));
+        assertThat(folder.getRoot().list().length, is(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectFilesThatAreNotSnapshots() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("other.bin");
+        Files.write(file, new byte[64]);
+        SnapshotFile.read(file, Serializer.utf8(), Serializer.utf8(), (key, value, left, timeout) -> {
+        });
+    }
+
+    private static String repeat(char c, int times) {
+        char[] chars = new char[times];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
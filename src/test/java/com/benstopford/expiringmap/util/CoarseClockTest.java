@@ -0,0 +1,56 @@
+package com.benstopford.expiringmap.util;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class CoarseClockTest {
+
+    @Test(timeout = 5000)
+    public void shouldMoveForwardAtItsResolution() throws InterruptedException {
+        //Given
+        CoarseClock clock = new CoarseClock(1, MILLISECONDS);
+        long start = clock.now();
+
+        //When
+        Thread.sleep(20);
+
+        //Then
+        assertThat(clock.now() > start, is(true));
+        assertThat(System.nanoTime() - clock.now() < MILLISECONDS.toNanos(1000), is(true));
+        clock.close();
+    }
+
+    @Test
+    public void shouldNotMoveBetweenTicks() {
+        //Given
+        CoarseClock clock = new CoarseClock(1, HOURS);
+
+        //Then
+        assertThat(clock.now(), is(clock.now()));
+        clock.close();
+    }
+
+    @Test(timeout = 5000)
+    public void shouldStopTickingWhenClosed() throws InterruptedException {
+        //Given
+        CoarseClock clock = new CoarseClock(1, MILLISECONDS);
+
+        //When
+        clock.close();
+        Thread.sleep(10);
+        long stopped = clock.now();
+        Thread.sleep(10);
+
+        //Then
+        assertThat(clock.now(), is(stopped));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAResolutionOfLessThanANanosecond() {
+        new CoarseClock(0, MILLISECONDS);
+    }
+}
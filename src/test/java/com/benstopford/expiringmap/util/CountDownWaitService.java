@@ -4,6 +4,7 @@ import java.util.concurrent.CountDownLatch;
 
 public class CountDownWaitService implements WaitService {
     private CountDownLatch latch;
+    private WaitService delegate = new ParkingWaitService();
 
     public CountDownWaitService(CountDownLatch latch){
         this.latch = latch;
@@ -11,11 +12,11 @@ public class CountDownWaitService implements WaitService {
     @Override
     public void doWait(long ms, int ns) throws InterruptedException {
         latch.countDown();
-        WaitService.DEFAULT.doWait(ms,ns);
+        delegate.doWait(ms,ns);
     }
 
     @Override
     public void doNotify() {
-        WaitService.DEFAULT.doNotify();
+        delegate.doNotify();
     }
 }
@@ -0,0 +1,156 @@
+package com.benstopford.expiringmap.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class EntryTableTest {
+
+    @Test
+    public void shouldFindEntriesThroughGrowth() {
+        //Given
+        EntryTable<Integer, String> table = new EntryTable<>();
+
+        //When
+        for (int i = 0; i < 10_000; i++)
+            table.put(i, table.newEntry(0, i, "value" + i));
+
+        //Then
+        assertThat(table.size(), is(10_000));
+        for (int i = 0; i < 10_000; i++)
+            assertThat(table.get(i).value(), is("value" + i));
+        assertThat(table.get(10_000), is(nullValue()));
+        Set<Integer> keys = new HashSet<>();
+        for (ExpiryEntry<Integer, String> entry : table.values())
+            keys.add(entry.key());
+        assertThat(keys.size(), is(10_000));
+    }
+
+    @Test
+    public void shouldSplitValuesIntoRangesThatCoverEveryEntryOnce() {
+        //Given
+        EntryTable<Integer, String> table = new EntryTable<>();
+        for (int i = 0; i < 10_000; i++)
+            table.put(i, table.newEntry(0, i, "value"));
+
+        //When
+        List<Spliterator<ExpiryEntry<Integer, String>>> parts = new ArrayList<>();
+        parts.add(table.values().spliterator());
+        for (int round = 0; round < 6; round++) {
+            for (int i = parts.size() - 1; i >= 0; i--) {
+                Spliterator<ExpiryEntry<Integer, String>> split = parts.get(i).trySplit();
+                if (split != null)
+                    parts.add(split);
+            }
+        }
+        List<Integer> keys = new ArrayList<>();
+        for (Spliterator<ExpiryEntry<Integer, String>> part : parts)
+            part.forEachRemaining(entry -> keys.add(entry.key()));
+
+        //Then
+        assertThat(parts.size(), is(64));
+        assertThat(keys.size(), is(10_000));
+        assertThat(new HashSet<>(keys).size(), is(10_000));
+    }
+
+    @Test
+    public void shouldReplaceRemoveAndPutIfAbsentWithinACollidingChain() {
+        //Given
+        EntryTable<Colliding, String> table = new EntryTable<>();
+        ExpiryEntry<Colliding, String> a = table.newEntry(0, new Colliding("a"), "a");
+        ExpiryEntry<Colliding, String> b = table.newEntry(0, new Colliding("b"), "b");
+        ExpiryEntry<Colliding, String> c = table.newEntry(0, new Colliding("c"), "c");
+        table.put(a.key(), a);
+        table.put(b.key(), b);
+        table.put(c.key(), c);
+
+        //When
+        ExpiryEntry<Colliding, String> b2 = table.newEntry(0, new Colliding("b"), "b2");
+
+        //Then
+        assertThat(table.putIfAbsent(b2.key(), b2), is(b));
+        assertThat(table.put(b2.key(), b2), is(b));
+        assertThat(table.get(new Colliding("b")), is(b2));
+        assertThat(table.remove(new Colliding("b"), b), is(false));
+        assertThat(table.remove(new Colliding("b"), b2), is(true));
+        assertThat(table.remove(new Colliding("a")), is(a));
+        assertThat(table.get(new Colliding("a")), is(nullValue()));
+        assertThat(table.get(new Colliding("c")), is(c));
+        assertThat(table.size(), is(1));
+    }
+
+    @Test
+    public void shouldLeaveRemovedEntriesLinkedToTheRestOfTheirChain() {
+        //Given
+        EntryTable<Colliding, String> table = new EntryTable<>();
+        ExpiryEntry<Colliding, String> a = table.newEntry(0, new Colliding("a"), "a");
+        ExpiryEntry<Colliding, String> b = table.newEntry(0, new Colliding("b"), "b");
+        table.put(a.key(), a);
+        table.put(b.key(), b);
+
+        //When a reader stands on b, the head, as it is removed
+        table.remove(b.key());
+
+        //Then it can still walk on to a
+        assertThat(((TableEntry<Colliding, String>) b).chain, is((TableEntry<Colliding, String>) a));
+    }
+
+    @Test
+    public void shouldNeverMissAKeyWhileTheTableGrowsAndChurns() throws InterruptedException {
+        //Given
+        EntryTable<Integer, String> table = new EntryTable<>();
+        for (int i = 0; i < 1000; i++)
+            table.put(i, table.newEntry(0, i, "stable"));
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger misses = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (running.get())
+                for (int i = 0; i < 1000; i++)
+                    if (table.get(i) == null)
+                        misses.incrementAndGet();
+        });
+        reader.start();
+
+        //When
+        for (int round = 0; round < 20; round++) {
+            for (int i = 1000; i < 50_000; i++)
+                table.put(i, table.newEntry(0, i, "churn"));
+            for (int i = 1000; i < 50_000; i++)
+                table.remove(i);
+        }
+        running.set(false);
+        reader.join();
+
+        //Then
+        assertThat(misses.get(), is(0));
+        assertThat(table.size(), is(1000));
+    }
+
+    private static class Colliding {
+        private final String name;
+
+        Colliding(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return 7;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Colliding && ((Colliding) o).name.equals(name);
+        }
+    }
+}
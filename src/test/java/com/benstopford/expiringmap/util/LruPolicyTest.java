@@ -0,0 +1,76 @@
+package com.benstopford.expiringmap.util;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class LruPolicyTest {
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedEntryWhenOverCapacity() {
+        //Given
+        LruPolicy<String, String> policy = new LruPolicy<>(2);
+        ExpiryEntry<String, String> a = add(policy, "a", 1);
+        ExpiryEntry<String, String> b = add(policy, "b", 1);
+
+        //When
+        policy.recordAccess(a);
+        add(policy, "c", 1);
+
+        //Then
+        assertThat(policy.evict(), is(b));
+        assertThat(policy.evict(), is(nullValue()));
+        assertThat(policy.weightedSize(), is(2L));
+    }
+
+    @Test
+    public void shouldEvictByWeight() {
+        //Given
+        LruPolicy<String, String> policy = new LruPolicy<>(10);
+        ExpiryEntry<String, String> a = add(policy, "a", 4);
+        ExpiryEntry<String, String> b = add(policy, "b", 4);
+        add(policy, "c", 4);
+
+        //Then
+        assertThat(policy.evict(), is(a));
+        assertThat(policy.evict(), is(nullValue()));
+
+        //When an entry is overwritten with a heavier value
+        policy.update(b, 7);
+
+        //Then
+        assertThat(policy.evict().key(), is("c"));
+        assertThat(policy.weightedSize(), is(7L));
+    }
+
+    @Test
+    public void shouldStopTrackingRemovedEntries() {
+        //Given
+        LruPolicy<String, String> policy = new LruPolicy<>(1);
+        ExpiryEntry<String, String> a = add(policy, "a", 1);
+        add(policy, "b", 1);
+
+        //When
+        policy.remove(a);
+        policy.remove(a);
+        policy.recordAccess(a);
+        policy.update(a, 5);
+
+        //Then
+        assertThat(policy.evict(), is(nullValue()));
+        assertThat(policy.weightedSize(), is(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNegativeWeights() {
+        add(new LruPolicy<>(1), "a", -1);
+    }
+
+    private ExpiryEntry<String, String> add(LruPolicy<String, String> policy, String key, int weight) {
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(0, key, "value");
+        policy.add(entry, weight);
+        return entry;
+    }
+}
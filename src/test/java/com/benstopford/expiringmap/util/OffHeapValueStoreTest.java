@@ -0,0 +1,165 @@
+package com.benstopford.expiringmap.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class OffHeapValueStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadBackWhatWasWritten() {
+        //Given
+        OffHeapValueStore<String, String> store = new OffHeapValueStore<>(new StringSerializer(), 1024);
+
+        //When
+        ExpiryEntry<String, String> entry = store.create(0, "key1", "value1");
+        ExpiryEntry<String, String> empty = store.create(0, "key2", "");
+
+        //Then
+        assertThat(store.read(entry), is("value1"));
+        assertThat(store.read(empty), is(""));
+    }
+
+    @Test
+    public void shouldReplaceTheValueOnUpdate() {
+        //Given
+        OffHeapValueStore<String, String> store = new OffHeapValueStore<>(new StringSerializer(), 1024);
+        ExpiryEntry<String, String> entry = store.create(0, "key1", "short");
+
+        //When
+        store.update(entry, "a much longer value than before");
+
+        //Then
+        assertThat(store.read(entry), is("a much longer value than before"));
+        assertThat(store.usedBytes(), is(32L));
+    }
+
+    @Test
+    public void shouldReuseReleasedSlots() {
+        //Given
+        OffHeapValueStore<String, byte[]> store = new OffHeapValueStore<>(Serializer.byteArray(), 1024);
+
+        //When
+        for (int i = 0; i < 10000; i++)
+            store.release(store.create(0, "key" + i, new byte[100]));
+
+        //Then
+        assertThat(store.allocatedBytes(), is(1024L));
+        assertThat(store.usedBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldReadNothingFromAReleasedEntry() {
+        //Given
+        OffHeapValueStore<String, String> store = new OffHeapValueStore<>(new StringSerializer(), 1024);
+        ExpiryEntry<String, String> entry = store.create(0, "key1", "value1");
+
+        //When
+        store.release(entry);
+        store.update(entry, "value2");
+
+        //Then
+        assertThat(store.read(entry), is(nullValue()));
+        assertThat(store.usedBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldHoldSlabsInMemoryMappedFiles() throws Exception {
+        //Given
+        File directory = folder.newFolder();
+        OffHeapValueStore<String, String> store = new OffHeapValueStore<>(new StringSerializer(), 1024, directory.toPath());
+
+        //When
+        ExpiryEntry<String, String> entry = store.create(0, "key1", "value1");
+
+        //Then
+        assertThat(store.read(entry), is("value1"));
+        assertThat(directory.list().length, is(1));
+
+        //When
+        store.close();
+
+        //Then
+        assertThat(directory.list().length, is(0));
+    }
+
+    @Test(timeout = 20000)
+    public void shouldNeverReadAnotherEntrysBytesWhileSlotsAreRecycled() throws InterruptedException {
+        //Given each entry's value is filled with its own id
+        OffHeapValueStore<Integer, byte[]> store = new OffHeapValueStore<>(Serializer.byteArray(), 4096);
+        int entries = 64;
+        AtomicReferenceArray<ExpiryEntry<Integer, byte[]>> live = new AtomicReferenceArray<>(entries);
+        for (int i = 0; i < entries; i++)
+            live.set(i, store.create(0, i, fill(i, 1)));
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger corrupt = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (running.get())
+                for (int i = 0; i < entries; i++) {
+                    byte[] value = store.read(live.get(i));
+                    if (value != null)
+                        for (byte b : value)
+                            if (b != i)
+                                corrupt.incrementAndGet();
+                }
+        });
+        reader.start();
+
+        //When slots are released, replaced and reused underneath it
+        Random random = new Random(42);
+        for (int n = 0; n < 200000; n++) {
+            int i = random.nextInt(entries);
+            if (random.nextBoolean()) {
+                store.update(live.get(i), fill(i, 1 + random.nextInt(40)));
+            } else {
+                ExpiryEntry<Integer, byte[]> old = live.get(i);
+                live.set(i, store.create(0, i, fill(i, 1 + random.nextInt(40))));
+                store.release(old);
+            }
+        }
+        running.set(false);
+        reader.join();
+
+        //Then
+        assertThat(corrupt.get(), is(0));
+    }
+
+    private static byte[] fill(int id, int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) id);
+        return bytes;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectValuesLargerThanASlab() {
+        new OffHeapValueStore<String, byte[]>(Serializer.byteArray(), 1024).create(0, "key1", new byte[1025]);
+    }
+
+    private static class StringSerializer implements Serializer<String> {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, UTF_8);
+        }
+    }
+}
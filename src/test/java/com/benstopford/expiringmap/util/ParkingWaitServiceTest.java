@@ -0,0 +1,58 @@
+package com.benstopford.expiringmap.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ParkingWaitServiceTest {
+
+    @Test(timeout = 5000)
+    public void shouldReturnImmediatelyIfNotifiedBeforeWaiting() throws InterruptedException {
+        //Given
+        ParkingWaitService waitService = new ParkingWaitService();
+
+        //When
+        waitService.doNotify();
+
+        //Then this would otherwise wait forever
+        waitService.doWait(0, 0);
+    }
+
+    @Test(timeout = 5000)
+    public void shouldWakeAWaitingThreadWhenNotified() throws InterruptedException {
+        //Given
+        ParkingWaitService waitService = new ParkingWaitService();
+        CountDownLatch woken = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                waitService.doWait(0, 0);
+                woken.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        waiter.start();
+
+        //When
+        while (waiter.getState() != Thread.State.WAITING)
+            Thread.sleep(1);
+        waitService.doNotify();
+
+        //Then
+        assertThat(woken.await(1, SECONDS), is(true));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldWaitForTheRequestedTime() throws InterruptedException {
+        ParkingWaitService waitService = new ParkingWaitService();
+
+        long start = System.nanoTime();
+        waitService.doWait(20, 0);
+
+        assertTrue(System.nanoTime() - start >= 19000000);
+    }
+}
@@ -0,0 +1,216 @@
+package com.benstopford.expiringmap.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class PriorityQueueSchedulerTest {
+
+    @Test
+    public void shouldReleaseEntriesInExpiryOrderAtTheirExactDeadline() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        scheduler.schedule(new ExpiryEntry<>(20, "key2", null));
+        scheduler.schedule(new ExpiryEntry<>(10, "key1", null));
+
+        //Then
+        assertThat(scheduler.nextExpiry(), is(10L));
+        assertThat(scheduler.pollExpired(9), is(nullValue()));
+        assertThat(scheduler.pollExpired(20).key(), is("key1"));
+        assertThat(scheduler.pollExpired(20).key(), is("key2"));
+        assertThat(scheduler.nextExpiry(), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldReportWhenAnEntryBecomesTheHead() {
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+
+        assertThat(scheduler.schedule(new ExpiryEntry<>(10, "key1", null)), is(true));
+        assertThat(scheduler.schedule(new ExpiryEntry<>(20, "key2", null)), is(false));
+        assertThat(scheduler.schedule(new ExpiryEntry<>(5, "key3", null)), is(true));
+    }
+
+    @Test
+    public void shouldNotReleaseCancelledEntries() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(10, "key1", null);
+        scheduler.schedule(entry);
+
+        //When
+        scheduler.cancel(entry);
+
+        //Then
+        assertThat(scheduler.size(), is(0));
+        assertThat(scheduler.pollExpired(10), is(nullValue()));
+    }
+
+    @Test
+    public void shouldKeepHeapOrderWhenEntriesAreCancelledFromTheMiddle() {
+        //Given
+        Random random = new Random(42);
+        PriorityQueueScheduler<Integer, String> scheduler = new PriorityQueueScheduler<>();
+        List<ExpiryEntry<Integer, String>> entries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ExpiryEntry<Integer, String> entry = new ExpiryEntry<>(random.nextInt(10000), i, null);
+            entries.add(entry);
+            scheduler.schedule(entry);
+        }
+
+        //When half are cancelled
+        Collections.shuffle(entries, random);
+        List<Long> remaining = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            if (i % 2 == 0)
+                scheduler.cancel(entries.get(i));
+            else
+                remaining.add(entries.get(i).expiry());
+        }
+        Collections.sort(remaining);
+
+        //Then the rest come out in expiry order
+        List<Long> polled = new ArrayList<>();
+        ExpiryEntry<Integer, String> entry;
+        while ((entry = scheduler.pollExpired(Long.MAX_VALUE)) != null)
+            polled.add(entry.expiry());
+        assertThat(polled, is(remaining));
+    }
+
+    @Test
+    public void shouldDrainDueEntriesInExpiryOrderUpToALimit() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        for (int i = 5; i > 0; i--)
+            scheduler.schedule(new ExpiryEntry<>(i, "key" + i, null));
+        scheduler.schedule(new ExpiryEntry<>(100, "later", null));
+        List<ExpiryEntry<String, String>> expired = new ArrayList<>();
+
+        //Then
+        assertThat(scheduler.drainExpired(10, 3, expired), is(3));
+        assertThat(scheduler.drainExpired(10, 3, expired), is(2));
+        assertThat(expired.get(0).key(), is("key1"));
+        assertThat(expired.get(4).key(), is("key5"));
+        assertThat(scheduler.size(), is(1));
+    }
+
+    @Test
+    public void shouldMoveAScheduledEntryInPlace() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(10, "key1", null);
+        scheduler.schedule(entry);
+        scheduler.schedule(new ExpiryEntry<>(20, "key2", null));
+
+        //When
+        assertThat(scheduler.reschedule(entry, 30), is(true));
+
+        //Then
+        assertThat(scheduler.size(), is(2));
+        assertThat(scheduler.pollExpired(25).key(), is("key2"));
+        assertThat(scheduler.pollExpired(25), is(nullValue()));
+        assertThat(scheduler.pollExpired(30), is(entry));
+        assertThat(entry.expiry(), is(30L));
+    }
+
+    @Test
+    public void shouldNotRescheduleAnEntryThatHasAlreadyExpired() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(10, "key1", null);
+        scheduler.schedule(entry);
+        scheduler.pollExpired(10);
+
+        //Then
+        assertThat(scheduler.reschedule(entry, 30), is(false));
+        assertThat(scheduler.size(), is(0));
+    }
+
+    @Test
+    public void shouldOnlyCancelAnEntryIfItIsDue() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(10, "key1", null);
+        scheduler.schedule(entry);
+
+        //Then
+        assertThat(scheduler.cancelIfExpired(entry, 9), is(false));
+        assertThat(scheduler.size(), is(1));
+        assertThat(scheduler.cancelIfExpired(entry, 10), is(true));
+        assertThat(scheduler.size(), is(0));
+        assertThat(scheduler.reschedule(entry, 30), is(false));
+    }
+
+    @Test
+    public void shouldNotCancelAnEntryThatHasBeenMovedToALaterTime() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(10, "key1", null);
+        scheduler.schedule(entry);
+
+        //When
+        scheduler.reschedule(entry, 30);
+
+        //Then
+        assertThat(scheduler.cancelIfExpired(entry, 20), is(false));
+        assertThat(scheduler.size(), is(1));
+    }
+
+    @Test
+    public void shouldScheduleABatchInExpiryOrder() {
+        //Given
+        Random random = new Random(42);
+        PriorityQueueScheduler<Integer, String> scheduler = new PriorityQueueScheduler<>();
+        scheduler.schedule(new ExpiryEntry<>(500, -1, null));
+        List<ExpiryEntry<Integer, String>> small = new ArrayList<>();
+        List<ExpiryEntry<Integer, String>> large = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            (i < 10 ? small : large).add(new ExpiryEntry<>(random.nextInt(1000), i, null));
+
+        //When sifted in, then rebuilt
+        scheduler.scheduleAll(small);
+        scheduler.scheduleAll(large);
+
+        //Then
+        assertThat(scheduler.size(), is(1001));
+        long last = Long.MIN_VALUE;
+        ExpiryEntry<Integer, String> entry;
+        while ((entry = scheduler.pollExpired(Long.MAX_VALUE)) != null) {
+            assertThat(entry.expiry() >= last, is(true));
+            last = entry.expiry();
+        }
+    }
+
+    @Test
+    public void shouldReportWhenABatchBringsTheNextExpiryForward() {
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+
+        assertThat(scheduler.scheduleAll(Collections.singletonList(new ExpiryEntry<>(10, "key1", null))), is(true));
+        assertThat(scheduler.scheduleAll(Arrays.asList(new ExpiryEntry<>(20, "key2", null), new ExpiryEntry<>(10, "key3", null))), is(false));
+        assertThat(scheduler.scheduleAll(Arrays.asList(new ExpiryEntry<>(30, "key4", null), new ExpiryEntry<>(5, "key5", null))), is(true));
+    }
+
+    @Test
+    public void shouldCancelABatch() {
+        //Given
+        PriorityQueueScheduler<String, String> scheduler = new PriorityQueueScheduler<>();
+        ExpiryEntry<String, String> entry1 = new ExpiryEntry<>(10, "key1", null);
+        ExpiryEntry<String, String> entry2 = new ExpiryEntry<>(20, "key2", null);
+        ExpiryEntry<String, String> entry3 = new ExpiryEntry<>(30, "key3", null);
+        scheduler.scheduleAll(Arrays.asList(entry1, entry2, entry3));
+
+        //When
+        scheduler.cancelAll(Arrays.asList(entry1, entry3, entry3));
+
+        //Then
+        assertThat(scheduler.size(), is(1));
+        assertThat(scheduler.pollExpired(30), is(entry2));
+    }
+}
@@ -0,0 +1,237 @@
+package com.benstopford.expiringmap.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelSchedulerTest {
+    private static final long ms = 1000000;
+
+    @Test
+    public void shouldReleaseEntriesOnceTheirTickHasPassed() {
+        //Given
+        TimingWheelScheduler<String, String> wheel = new TimingWheelScheduler<>(1, MILLISECONDS);
+        wheel.schedule(new ExpiryEntry<>(5 * ms, "key1", null));
+
+        //Then
+        assertThat(wheel.pollExpired(4 * ms), is(nullValue()));
+        assertThat(wheel.pollExpired(5 * ms).key(), is("key1"));
+        assertThat(wheel.size(), is(0));
+    }
+
+    @Test
+    public void shouldRoundDeadlinesUpToTheNextTick() {
+        //Given
+        TimingWheelScheduler<String, String> wheel = new TimingWheelScheduler<>(1, MILLISECONDS);
+        wheel.schedule(new ExpiryEntry<>(5 * ms + 1, "key1", null));
+
+        //Then never early
+        assertThat(wheel.pollExpired(5 * ms + 1), is(nullValue()));
+        assertThat(wheel.pollExpired(6 * ms - 1), is(nullValue()));
+        assertThat(wheel.pollExpired(6 * ms).key(), is("key1"));
+    }
+
+    @Test
+    public void shouldNotReleaseCancelledEntries() {
+        //Given
+        TimingWheelScheduler<String, String> wheel = new TimingWheelScheduler<>(1, MILLISECONDS);
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(5 * ms, "key1", null);
+        wheel.schedule(entry);
+
+        //When
+        wheel.cancel(entry);
+
+        //Then
+        assertThat(wheel.size(), is(0));
+        assertThat(wheel.pollExpired(10 * ms), is(nullValue()));
+        assertThat(wheel.nextExpiry(), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldReportWhenAnEntryBringsTheNextExpiryForward() {
+        TimingWheelScheduler<String, String> wheel = new TimingWheelScheduler<>(1, MILLISECONDS);
+        wheel.pollExpired(0);
+
+        assertThat(wheel.schedule(new ExpiryEntry<>(10 * ms, "key1", null)), is(true));
+        assertThat(wheel.schedule(new ExpiryEntry<>(20 * ms, "key2", null)), is(false));
+        assertThat(wheel.schedule(new ExpiryEntry<>(5 * ms, "key3", null)), is(true));
+        assertTrue(wheel.nextExpiry() <= 5 * ms);
+    }
+
+    @Test
+    public void shouldCascadeEntriesScheduledFarIntoTheFuture() {
+        //Given
+        TimingWheelScheduler<String, String> wheel = new TimingWheelScheduler<>(1, NANOSECONDS);
+        long hour = MILLISECONDS.toNanos(3600000);
+        wheel.schedule(new ExpiryEntry<>(hour, "hour", null));
+        wheel.schedule(new ExpiryEntry<>(Long.MAX_VALUE, "never", null));
+
+        //Then
+        assertThat(wheel.pollExpired(hour - 1), is(nullValue()));
+        assertThat(wheel.pollExpired(hour).key(), is("hour"));
+        assertThat(wheel.pollExpired(Long.MAX_VALUE - 1), is(nullValue()));
+        assertThat(wheel.pollExpired(Long.MAX_VALUE).key(), is("never"));
+    }
+
+    @Test
+    public void shouldHandleNegativeClockValues() {
+        //Given
+        TimingWheelScheduler<String, String> wheel = new TimingWheelScheduler<>(1, MILLISECONDS);
+        wheel.schedule(new ExpiryEntry<>(-5 * ms, "before", null));
+        wheel.schedule(new ExpiryEntry<>(5 * ms, "after", null));
+
+        //Then
+        assertThat(wheel.pollExpired(-10 * ms), is(nullValue()));
+        assertThat(wheel.pollExpired(0).key(), is("before"));
+        assertThat(wheel.pollExpired(0), is(nullValue()));
+        assertThat(wheel.pollExpired(5 * ms).key(), is("after"));
+    }
+
+    @Test
+    public void shouldReleaseExactlyTheDueEntriesAsTimeMovesForward() {
+        //Given a spread of deadlines across several wheels
+        Random random = new Random(42);
+        long tick = ms;
+        TimingWheelScheduler<Integer, String> wheel = new TimingWheelScheduler<>(tick, NANOSECONDS);
+        List<ExpiryEntry<Integer, String>> pending = new ArrayList<>();
+        long now = random.nextLong() / 2;
+        wheel.pollExpired(now);
+        for (int i = 0; i < 10000; i++) {
+            ExpiryEntry<Integer, String> entry = new ExpiryEntry<>(now + (long) (random.nextDouble() * 1000000 * tick), i, null);
+            pending.add(entry);
+            wheel.schedule(entry);
+        }
+
+        //When time moves forward in uneven steps
+        while (!pending.isEmpty()) {
+            now += (long) (random.nextDouble() * 20000 * tick);
+
+            Set<Integer> released = new HashSet<>();
+            ExpiryEntry<Integer, String> entry;
+            while ((entry = wheel.pollExpired(now)) != null)
+                released.add(entry.key());
+
+            //Then everything whose tick has passed, and nothing else, is released
+            Set<Integer> due = new HashSet<>();
+            for (ExpiryEntry<Integer, String> e : pending)
+                if (Math.floorDiv(e.expiry() + tick - 1, tick) <= Math.floorDiv(now, tick))
+                    due.add(e.key());
+            pending.removeIf(e -> due.contains(e.key()));
+
+            assertThat(released, is(due));
+            assertThat(wheel.size(), is(pending.size()));
+        }
+    }
+
+    @Test
+    public void shouldDrainDueEntriesUpToALimit() {
+        //Given
+        TimingWheelScheduler<String, String> wheel = new TimingWheelScheduler<>(1, MILLISECONDS);
+        for (int i = 0; i < 5; i++)
+            wheel.schedule(new ExpiryEntry<>(i * ms, "key" + i, null));
+        wheel.schedule(new ExpiryEntry<>(100 * ms, "later", null));
+        List<ExpiryEntry<String, String>> expired = new ArrayList<>();
+
+        //Then
+        assertThat(wheel.drainExpired(10 * ms, 3, expired), is(3));
+        assertThat(wheel.drainExpired(10 * ms, 3, expired), is(2));
+        assertThat(wheel.drainExpired(10 * ms, 3, expired), is(0));
+        assertThat(expired.size(), is(5));
+        assertThat(wheel.size(), is(1));
+    }
+
+    @Test
+    public void shouldMoveAScheduledEntryInPlace() {
+        //Given
+        TimingWheelScheduler<String, String> scheduler = new TimingWheelScheduler<>(1, NANOSECONDS);
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(10, "key1", null);
+        scheduler.schedule(entry);
+        scheduler.schedule(new ExpiryEntry<>(20, "key2", null));
+
+        //When
+        assertThat(scheduler.reschedule(entry, 30), is(true));
+
+        //Then
+        assertThat(scheduler.size(), is(2));
+        assertThat(scheduler.pollExpired(25).key(), is("key2"));
+        assertThat(scheduler.pollExpired(25), is(nullValue()));
+        assertThat(scheduler.pollExpired(30), is(entry));
+        assertThat(entry.expiry(), is(30L));
+    }
+
+    @Test
+    public void shouldNotRescheduleAnEntryThatHasAlreadyExpired() {
+        //Given
+        TimingWheelScheduler<String, String> scheduler = new TimingWheelScheduler<>(1, NANOSECONDS);
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(10, "key1", null);
+        scheduler.schedule(entry);
+        scheduler.pollExpired(10);
+
+        //Then
+        assertThat(scheduler.reschedule(entry, 30), is(false));
+        assertThat(scheduler.size(), is(0));
+    }
+
+    @Test
+    public void shouldOnlyCancelAnEntryIfItIsDue() {
+        //Given
+        TimingWheelScheduler<String, String> scheduler = new TimingWheelScheduler<>(1, NANOSECONDS);
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(10, "key1", null);
+        scheduler.schedule(entry);
+
+        //Then
+        assertThat(scheduler.cancelIfExpired(entry, 9), is(false));
+        assertThat(scheduler.size(), is(1));
+        assertThat(scheduler.cancelIfExpired(entry, 10), is(true));
+        assertThat(scheduler.size(), is(0));
+        assertThat(scheduler.reschedule(entry, 30), is(false));
+    }
+
+    @Test
+    public void shouldNotCancelAnEntryThatHasBeenMovedToALaterTime() {
+        //Given
+        TimingWheelScheduler<String, String> scheduler = new TimingWheelScheduler<>(1, NANOSECONDS);
+        ExpiryEntry<String, String> entry = new ExpiryEntry<>(10, "key1", null);
+        scheduler.schedule(entry);
+
+        //When
+        scheduler.reschedule(entry, 30);
+
+        //Then
+        assertThat(scheduler.cancelIfExpired(entry, 20), is(false));
+        assertThat(scheduler.size(), is(1));
+    }
+
+    @Test
+    public void shouldScheduleAndCancelABatch() {
+        //Given
+        TimingWheelScheduler<String, String> wheel = new TimingWheelScheduler<>(1, MILLISECONDS);
+        wheel.pollExpired(0);
+        ExpiryEntry<String, String> entry1 = new ExpiryEntry<>(5 * ms, "key1", null);
+        ExpiryEntry<String, String> entry2 = new ExpiryEntry<>(500 * ms, "key2", null);
+        ExpiryEntry<String, String> entry3 = new ExpiryEntry<>(5 * ms, "key3", null);
+
+        //When
+        assertThat(wheel.scheduleAll(Arrays.asList(entry1, entry2, entry3)), is(true));
+        assertThat(wheel.scheduleAll(Arrays.asList(new ExpiryEntry<>(10 * ms, "key4", null))), is(false));
+        wheel.cancelAll(Arrays.asList(entry1, entry2));
+
+        //Then
+        assertThat(wheel.size(), is(2));
+        assertThat(wheel.pollExpired(5 * ms).key(), is("key3"));
+        assertThat(wheel.pollExpired(10 * ms).key(), is("key4"));
+        assertThat(wheel.pollExpired(1000 * ms), is(nullValue()));
+    }
+}
@@ -0,0 +1,86 @@
+package com.benstopford.expiringmap.util;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class TinyLfuPolicyTest {
+
+    @Test
+    public void shouldKeepFrequentlyUsedEntriesThroughAScanOfOneOffKeys() {
+        //Given a hot set that is read repeatedly
+        TinyLfuPolicy<String, String> policy = new TinyLfuPolicy<>(100);
+        Set<String> live = new HashSet<>();
+        ExpiryEntry<String, String>[] hot = entries("hot", 50);
+        for (ExpiryEntry<String, String> entry : hot)
+            add(policy, entry, live);
+        for (int round = 0; round < 5; round++)
+            for (ExpiryEntry<String, String> entry : hot) {
+                policy.recordAccess(entry);
+                policy.evict(); //replays the buffered reads
+            }
+
+        //When a burst of keys seen only once passes through
+        for (ExpiryEntry<String, String> entry : entries("scan", 1000))
+            add(policy, entry, live);
+
+        //Then
+        for (ExpiryEntry<String, String> entry : hot)
+            assertThat(entry.key(), live.contains(entry.key()), is(true));
+        assertThat(policy.weightedSize(), is(100L));
+    }
+
+    @Test
+    public void shouldEvictDownToItsMaximum() {
+        //Given
+        TinyLfuPolicy<String, String> policy = new TinyLfuPolicy<>(10);
+        Set<String> live = new HashSet<>();
+
+        //When
+        for (ExpiryEntry<String, String> entry : entries("key", 100))
+            add(policy, entry, live);
+
+        //Then
+        assertThat(live.size(), is(10));
+        assertThat(policy.weightedSize(), is(10L));
+        assertThat(policy.evict(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldStopTrackingRemovedEntries() {
+        //Given
+        TinyLfuPolicy<String, String> policy = new TinyLfuPolicy<>(10);
+        ExpiryEntry<String, String>[] entries = entries("key", 10);
+        for (ExpiryEntry<String, String> entry : entries)
+            policy.add(entry, 1);
+
+        //When
+        for (ExpiryEntry<String, String> entry : entries)
+            policy.remove(entry);
+
+        //Then
+        assertThat(policy.weightedSize(), is(0L));
+        assertThat(policy.evict(), is(nullValue()));
+    }
+
+    private void add(TinyLfuPolicy<String, String> policy, ExpiryEntry<String, String> entry, Set<String> live) {
+        policy.add(entry, 1);
+        live.add(entry.key());
+        ExpiryEntry<String, String> victim;
+        while ((victim = policy.evict()) != null)
+            live.remove(victim.key());
+    }
+
+    @SuppressWarnings("unchecked")
+    private ExpiryEntry<String, String>[] entries(String prefix, int count) {
+        ExpiryEntry<String, String>[] entries = new ExpiryEntry[count];
+        for (int i = 0; i < count; i++)
+            entries[i] = new ExpiryEntry<>(0, prefix + i, "value");
+        return entries;
+    }
+}
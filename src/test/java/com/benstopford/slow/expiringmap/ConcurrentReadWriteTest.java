@@ -0,0 +1,129 @@
+package com.benstopford.slow.expiringmap;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentReadWriteTest {
+    private static final int numKeys = 1000;
+    private static final int readersPerWriter = 50;
+    private static final long runForMs = 1000;
+
+    @Test
+    public void shouldReadConsistentValuesWhilstWritersAndRemoversRun() throws InterruptedException {
+        //Given
+        ExpiringMap<Integer, String> map = new ExpiringMap<>();
+        for (int i = 0; i < numKeys; i++)
+            map.put(i, "value" + i, HOURS.toMillis(1));
+
+        //When
+        Result result;
+        try {
+            result = run(map, threads());
+        } finally {
+            map.close();
+        }
+
+        //Then every read saw either nothing or the value written for that key
+        assertThat(result.badReads.get(), is(0L));
+        assertTrue(result.reads.get() > 0);
+    }
+
+    private Result run(ExpiringMap<Integer, String> map, int threads) throws InterruptedException {
+        Result result = new Result();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                Runnable task = i % (readersPerWriter + 1) == 0
+                        ? new Writer(map, running)
+                        : new Reader(map, running, result);
+                executor.execute(() -> {
+                    started.countDown();
+                    task.run();
+                });
+            }
+
+            started.await();
+            Thread.sleep(runForMs);
+            running.set(false);
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            return result;
+        } finally {
+            running.set(false);
+            executor.shutdownNow();
+        }
+    }
+
+    private int threads() {
+        return Math.max(4, Runtime.getRuntime().availableProcessors());
+    }
+
+    static class Result {
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong badReads = new AtomicLong();
+    }
+
+    class Reader implements Runnable {
+        private ExpiringMap<Integer, String> map;
+        private AtomicBoolean running;
+        private Result result;
+
+        Reader(ExpiringMap<Integer, String> map, AtomicBoolean running, Result result) {
+            this.map = map;
+            this.running = running;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            long reads = 0;
+            long badReads = 0;
+            int key = 0;
+            while (running.get()) {
+                String value = map.get(key);
+                if (value != null && !value.equals("value" + key))
+                    badReads++;
+                key = (key + 1) % numKeys;
+                reads++;
+            }
+            result.reads.addAndGet(reads);
+            result.badReads.addAndGet(badReads);
+        }
+    }
+
+    class Writer implements Runnable {
+        private ExpiringMap<Integer, String> map;
+        private AtomicBoolean running;
+
+        Writer(ExpiringMap<Integer, String> map, AtomicBoolean running) {
+            this.map = map;
+            this.running = running;
+        }
+
+        @Override
+        public void run() {
+            int key = 0;
+            while (running.get()) {
+                if (key % 10 == 0)
+                    map.remove(key);
+                else
+                    map.put(key, "value" + key, HOURS.toMillis(1));
+                key = (key + 1) % numKeys;
+            }
+        }
+    }
+}
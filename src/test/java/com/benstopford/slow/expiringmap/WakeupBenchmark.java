@@ -0,0 +1,99 @@
+package com.benstopford.slow.expiringmap;
+
+import com.benstopford.expiringmap.ExpiringMap;
+import com.benstopford.expiringmap.util.ParkingWaitService;
+import com.benstopford.expiringmap.util.WaitService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+/**
+ * Counts how many expiry threads wake for each put across many map
+ * instances. Every put carries a shorter timeout than the last, so each
+ * one notifies its map's expiry thread.
+ * <p>
+ * The shared monitor mimics the original WaitService.DEFAULT, where one
+ * notifyAll reached every map in the JVM.
+ */
+public class WakeupBenchmark {
+    private static final int numMaps = 200;
+    private static final int numPuts = 2000;
+    private static final long pauseBetweenPutsNs = 200000;
+
+    public static void main(String[] args) throws InterruptedException {
+        WakeupBenchmark benchmark = new WakeupBenchmark();
+        benchmark.run("shared monitor", SharedMonitorWaitService::new);
+        benchmark.run("per instance", ParkingWaitService::new);
+    }
+
+    public void run(String name, Supplier<WaitService> waitServices) throws InterruptedException {
+        AtomicLong wakeups = new AtomicLong();
+        List<ExpiringMap<Integer, String>> maps = new ArrayList<>();
+        for (int i = 0; i < numMaps; i++)
+            maps.add(new ExpiringMap<>(System::nanoTime, new CountingWaitService(waitServices.get(), wakeups)));
+
+        Thread.sleep(100); //let the expiry threads park
+        wakeups.set(0);
+
+        Random random = new Random(42);
+        long timeout = HOURS.toMillis(1000);
+        long took = 0;
+        for (int i = 0; i < numPuts; i++) {
+            ExpiringMap<Integer, String> map = maps.get(random.nextInt(numMaps));
+            long start = System.nanoTime();
+            map.put(i, "value" + i, timeout--);
+            took += System.nanoTime() - start;
+            LockSupport.parkNanos(pauseBetweenPutsNs); //let woken threads go back to sleep
+        }
+
+        Thread.sleep(100); //let woken threads settle
+
+        System.out.printf("%s: maps: %d, puts: %,d, wakeups: %,d, wakeups per put: %.2f, put took: %,dns\n",
+                name, numMaps, numPuts, wakeups.get(), (double) wakeups.get() / numPuts, took / numPuts);
+    }
+
+    static class CountingWaitService implements WaitService {
+        private final WaitService delegate;
+        private final AtomicLong wakeups;
+
+        CountingWaitService(WaitService delegate, AtomicLong wakeups) {
+            this.delegate = delegate;
+            this.wakeups = wakeups;
+        }
+
+        @Override
+        public void doWait(long ms, int ns) throws InterruptedException {
+            delegate.doWait(ms, ns);
+            wakeups.incrementAndGet();
+        }
+
+        @Override
+        public void doNotify() {
+            delegate.doNotify();
+        }
+    }
+
+    static class SharedMonitorWaitService implements WaitService {
+        private static final Object monitor = new Object();
+
+        @Override
+        public void doWait(long ms, int ns) throws InterruptedException {
+            synchronized (monitor) {
+                monitor.wait(ms, ns);
+            }
+        }
+
+        @Override
+        public void doNotify() {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+}